@@ -0,0 +1,186 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Times the provider's bulkInsert, which binds rows into compiled statements, against the
+ * db.insert() per row it used before, for a week, ten weeks and a hundred weeks of rows.  Also
+ * times the location lookup of the sync through the compiled statement against a query.  The
+ * times are logged, the rows are checked.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+    private static final String LOCATION = "94043";
+    private static final long START_DATE = 1419033600000L;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int[] ROW_COUNTS = {14, 140, 1400};
+    private static final int RUNS = 5;
+    private static final int LOOKUPS = 500;
+
+    private WeatherDbHelper mDbHelper;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mDbHelper = new WeatherDbHelper(mContext);
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 37.4);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -122.1);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, location));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testBulkInsert() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        for (int count : ROW_COUNTS) {
+            ContentValues[] rows = createRows(count);
+            long before = Long.MAX_VALUE;
+            long after = Long.MAX_VALUE;
+            // the best of a few runs, each into an empty table
+            for (int run = 0; run < RUNS; run++) {
+                deleteWeather();
+                long start = System.nanoTime();
+                insertPerRow(db, rows);
+                before = Math.min(before, System.nanoTime() - start);
+                assertEquals(count, countWeather());
+
+                deleteWeather();
+                start = System.nanoTime();
+                int inserted = mContext.getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_URI, rows);
+                after = Math.min(after, System.nanoTime() - start);
+                assertEquals(count, inserted);
+                assertEquals(count, countWeather());
+            }
+            Log.i(LOG_TAG, count + " rows: db.insert per row " + before / 1000 +
+                    " us, bulkInsert " + after / 1000 + " us");
+        }
+    }
+
+    public void testFindLocation() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{LOCATION}, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(mLocationId, cursor.getLong(0));
+            cursor.close();
+        }
+        long query = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            Bundle found = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_FIND_LOCATION, LOCATION, null);
+            assertEquals(mLocationId, found.getLong(WeatherContract.RESULT_LOCATION_ID));
+        }
+        long compiled = System.nanoTime() - start;
+        Log.i(LOG_TAG, "location lookup: query " + query / LOOKUPS / 1000 +
+                " us, compiled statement " + compiled / LOOKUPS / 1000 + " us");
+
+        Bundle missing = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_FIND_LOCATION, "00000", null);
+        assertEquals(-1, missing.getLong(WeatherContract.RESULT_LOCATION_ID));
+    }
+
+    public void testMissingDescriptionIsBoundAsNull() {
+        ContentValues row = createRows(1)[0];
+        row.putNull(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        Bundle extras = new Bundle();
+        ArrayList<ContentValues> rows = new ArrayList<ContentValues>();
+        rows.add(row);
+        extras.putParcelableArrayList(WeatherContract.EXTRA_WEATHER_VALUES, rows);
+        try {
+            mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_APPLY_FORECAST, null, extras);
+            fail("a day without a description was written");
+        } catch (SQLException expected) {
+            // the NOT NULL constraint, as with insert(), not a failed bind
+        }
+        assertEquals(0, countWeather());
+    }
+
+    public void testBadRowIsSkippedAndTheRestInserted() {
+        ContentValues[] rows = createRows(14);
+        rows[3].putNull(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        rows[9].putNull(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        int inserted = mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI, rows);
+        // the NOT NULL constraint drops those two rows only, as with insert() per row
+        assertEquals(12, inserted);
+        assertEquals(12, countWeather());
+    }
+
+    // How bulkInsert wrote the rows before it used compiled statements
+    private static void insertPerRow(SQLiteDatabase db, ContentValues[] rows) {
+        db.beginTransactionNonExclusive();
+        try {
+            for (ContentValues row : rows) {
+                db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, row);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private ContentValues[] createRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int day = 0; day < count; day++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, START_DATE + day * DAY_IN_MILLIS);
+            values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0 + day % 5);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0 + day % 5);
+            values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0);
+            values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1013.0);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 3.0);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 270.0);
+            rows[day] = values;
+        }
+        return rows;
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private int countWeather() {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + WeatherContract.WeatherEntry.TABLE_NAME, null);
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,138 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stress test for reads running while the sync writes.  Reader threads repeat the provider's
+ * "today for a location" join while a writer keeps rewriting the forecast in transactions, and
+ * the reader latency percentiles are logged.
+ */
+public class TestConcurrentAccess extends AndroidTestCase {
+    private static final String LOG_TAG = TestConcurrentAccess.class.getSimpleName();
+    private static final String LOCATION = "94043";
+    private static final long START_DATE = 1419033600000L;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int READERS = 3;
+    private static final int READS_PER_READER = 300;
+
+    private WeatherDbHelper mDbHelper;
+    private volatile boolean mWriting;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testWriteAheadLoggingEnabled() {
+        Cursor cursor = mDbHelper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+    }
+
+    public void testReadersDuringSyncWrites() throws Exception {
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 37.4);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -122.1);
+        final long locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+        writeForecast(db, locationId, 0);
+
+        mWriting = true;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int pass = 1;
+                while (mWriting) {
+                    writeForecast(db, locationId, pass++);
+                }
+            }
+        });
+
+        final String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null);
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < READERS; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SQLiteDatabase readDb = mDbHelper.getReadableDatabase();
+                    for (int j = 0; j < READS_PER_READER; j++) {
+                        long start = System.nanoTime();
+                        Cursor cursor = readDb.rawQuery(sql,
+                                new String[]{LOCATION, Long.toString(START_DATE)});
+                        cursor.moveToFirst();
+                        cursor.close();
+                        latencies.add(System.nanoTime() - start);
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        mWriting = false;
+        writer.join();
+
+        List<Long> sorted = new ArrayList<Long>(latencies);
+        Collections.sort(sorted);
+        assertEquals(READERS * READS_PER_READER, sorted.size());
+        Log.i(LOG_TAG, "reader latency us: p50=" + percentile(sorted, 50) +
+                " p95=" + percentile(sorted, 95) +
+                " p99=" + percentile(sorted, 99) +
+                " max=" + sorted.get(sorted.size() - 1) / 1000);
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int index = Math.min(sorted.size() - 1, sorted.size() * percent / 100);
+        return sorted.get(index) / 1000;
+    }
+
+    // One sync worth of writes: fourteen days rewritten in a single transaction
+    private static void writeForecast(SQLiteDatabase db, long locationId, int pass) {
+        db.beginTransactionNonExclusive();
+        try {
+            for (int day = 0; day < 14; day++) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE, START_DATE + day * DAY_IN_MILLIS);
+                values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+                values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+                values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10 + pass % 5);
+                values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + pass % 5);
+                values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50);
+                values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1013);
+                values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 3);
+                values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 270);
+                db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract.LocationEntry;
+import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract.WeatherEntry;
+
+/**
+ * Builds the database as each historical version shipped it, then opens it with the current
+ * WeatherDbHelper and checks that the cached forecast survived the upgrade.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+    // Schema of version 2, the oldest one that is migrated in place
+    private static final String V2_CREATE_LOCATION =
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                    "coord_lat REAL NOT NULL, coord_long REAL NOT NULL );";
+    private static final String V2_CREATE_WEATHER =
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                    " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+    // Version 3 added the forecast digest to the location table
+    private static final String V3_ADD_DIGEST =
+            "ALTER TABLE location ADD COLUMN forecast_digest TEXT";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    private void createHistoricalDatabase(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        db.execSQL(V2_CREATE_LOCATION);
+        db.execSQL(V2_CREATE_WEATHER);
+        if (version >= 3) {
+            db.execSQL(V3_ADD_DIGEST);
+        }
+        db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, coord_long) " +
+                "VALUES (1, '94043', 'Mountain View', 37.4, -122.1)");
+        db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, " +
+                "humidity, pressure, wind, degrees) " +
+                "VALUES (1, 1419033600000, 'Clear', 800, 10, 20, 50, 1013, 3, 270)");
+        db.setVersion(version);
+        db.close();
+    }
+
+    private void assertUpgradedKeepsData() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Forecast row lost in upgrade", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_FORECAST_DIGEST}, null, null, null, null, null);
+        assertEquals("Location row lost in upgrade", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX});
+        assertTrue("Missing weather location/date index", cursor.moveToFirst());
+        cursor.close();
+        db.close();
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        for (int version = WeatherDbHelper.FIRST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            createHistoricalDatabase(version);
+            assertUpgradedKeepsData();
+        }
+    }
+}
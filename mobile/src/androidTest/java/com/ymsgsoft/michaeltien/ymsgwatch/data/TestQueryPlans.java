@@ -0,0 +1,79 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Runs EXPLAIN QUERY PLAN over the queries the provider and the sync issue, and fails if any of
+ * them falls back to scanning a whole table or index.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    private static final String LOCATION = "94043";
+    private static final String DATE = "1419033600000";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private static String buildJoinQuery(String selection) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, selection, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC", null);
+    }
+
+    private void assertNoFullScan(String sql, String... args) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        assertTrue("No query plan for " + sql, cursor.moveToFirst());
+        do {
+            String detail = cursor.getString(detailIndex);
+            // "SCAN TABLE weather" on older SQLite, "SCAN weather" on newer ones
+            assertFalse("Full scan in " + sql + ": " + detail, detail.startsWith("SCAN"));
+        } while (cursor.moveToNext());
+        cursor.close();
+    }
+
+    public void testWeatherWithLocation() {
+        assertNoFullScan(buildJoinQuery(WeatherProvider.sLocationSettingSelection), LOCATION);
+    }
+
+    public void testWeatherWithLocationAndStartDate() {
+        assertNoFullScan(buildJoinQuery(WeatherProvider.sLocationSettingWithStartDateSelection),
+                LOCATION, DATE);
+    }
+
+    public void testWeatherWithLocationAndDate() {
+        assertNoFullScan(buildJoinQuery(WeatherProvider.sLocationSettingAndDaySelection),
+                LOCATION, DATE);
+    }
+
+    public void testLocationBySetting() {
+        assertNoFullScan("SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?", LOCATION);
+    }
+
+    public void testPruneByDate() {
+        assertNoFullScan("SELECT " + WeatherContract.WeatherEntry._ID + " FROM " +
+                WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?", DATE);
+    }
+
+    public void testUpsertByLocationAndDate() {
+        assertNoFullScan("SELECT " + WeatherContract.WeatherEntry._ID + " FROM " +
+                WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?", "1", DATE);
+    }
+}
@@ -0,0 +1,114 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that single-day lookups through the provider are served from TodayWeatherCache and
+ * that every kind of write invalidates it.
+ */
+public class TestTodayWeatherCache extends AndroidTestCase {
+    private static final String LOCATION = "99705";
+    private static final long DATE = 1419033600000L;
+    private static final String[] PROJECTION = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME
+    };
+
+    private TodayWeatherCache mCache;
+    private long mLocationId;
+    private Uri mDayUri;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = TodayWeatherCache.getInstance();
+        deleteAll();
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, location));
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{createDay(20)});
+        mDayUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION, DATE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private ContentValues createDay(double high) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, DATE);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+        return values;
+    }
+
+    // Queries the day and returns its high, or NaN if there is no row
+    private double queryHigh() {
+        Cursor cursor = mContext.getContentResolver().query(mDayUri, PROJECTION, null, null, null);
+        double high = cursor.moveToFirst() ? cursor.getDouble(1) : Double.NaN;
+        cursor.close();
+        return high;
+    }
+
+    private void assertServedFromCache(double expectedHigh) {
+        queryHigh();
+        long hits = mCache.getHitCount();
+        assertEquals(expectedHigh, queryHigh(), 0.001);
+        assertEquals("Second lookup should be a cache hit", hits + 1, mCache.getHitCount());
+    }
+
+    private void assertMissThenValue(double expectedHigh) {
+        long misses = mCache.getMissCount();
+        assertEquals(expectedHigh, queryHigh(), 0.001);
+        assertEquals("Lookup after a write should miss", misses + 1, mCache.getMissCount());
+    }
+
+    public void testBulkInsertInvalidates() {
+        assertServedFromCache(20);
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{createDay(25)});
+        assertMissThenValue(25);
+    }
+
+    public void testUpdateInvalidates() {
+        assertServedFromCache(20);
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.0);
+        mContext.getContentResolver().update(WeatherContract.WeatherEntry.CONTENT_URI, values,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(mLocationId)});
+        assertMissThenValue(30);
+    }
+
+    public void testDeleteInvalidates() {
+        assertServedFromCache(20);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        long misses = mCache.getMissCount();
+        assertTrue("Deleted day still returned", Double.isNaN(queryHigh()));
+        assertEquals("Lookup after a write should miss", misses + 1, mCache.getMissCount());
+    }
+}
@@ -0,0 +1,188 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the streaming parser on a recorded response, and times it against the JSONObject
+ * decoder the sync used before, over the same bytes.  android.util.JsonReader only exists on
+ * the device, so this is where the two can be compared.  Times and allocations are logged.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+    private static final int RUNS = 200;
+
+    // A day of a daily forecast response for Mountain View, as OpenWeatherMap sent it
+    private static final String RECORDED_DAY = "{\"dt\":%d,\"temp\":{\"day\":16.54,"
+            + "\"min\":9.11,\"max\":18.72,\"night\":9.11,\"eve\":15.05,\"morn\":12.3},"
+            + "\"pressure\":1012.36,\"humidity\":64,\"weather\":[{\"id\":800,\"main\":\"Clear\","
+            + "\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":3.21,\"deg\":292,"
+            + "\"clouds\":0}";
+    private static final String RECORDED_CITY = "{\"city\":{\"id\":5375480,"
+            + "\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},"
+            + "\"country\":\"US\",\"population\":0},\"cod\":\"200\",\"message\":0.0129,"
+            + "\"cnt\":14,\"list\":[";
+    private static final long FIRST_DAY = 1419076800L;
+    private static final long DAY_IN_SECONDS = 60 * 60 * 24;
+
+    private static String response(int days, String day) {
+        StringBuilder json = new StringBuilder(RECORDED_CITY);
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(day, FIRST_DAY + i * DAY_IN_SECONDS));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static List<Double> parse(String json) throws IOException {
+        final List<Double> values = new ArrayList<Double>();
+        ForecastJsonParser.parse(new ByteArrayInputStream(json.getBytes("UTF-8")),
+                new ForecastJsonParser.Callback() {
+                    @Override
+                    public void onCity(String cityName, double lat, double lon) {
+                        values.add(lat);
+                        values.add(lon);
+                    }
+
+                    @Override
+                    public void onDay(ForecastJsonParser.DayForecast day) {
+                        values.add(day.high);
+                        values.add(day.low);
+                        values.add((double) day.humidity);
+                        values.add(day.pressure);
+                        values.add(day.windSpeed);
+                        values.add(day.windDirection);
+                        values.add((double) day.weatherId);
+                    }
+                });
+        return values;
+    }
+
+    // How the sync read the response before the streaming parser
+    private static List<Double> parseDom(String json) throws JSONException {
+        List<Double> values = new ArrayList<Double>();
+        JSONObject forecastJson = new JSONObject(json);
+        JSONObject cityCoord = forecastJson.getJSONObject("city").getJSONObject("coord");
+        values.add(cityCoord.getDouble("lat"));
+        values.add(cityCoord.getDouble("lon"));
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            values.add(temperatureObject.getDouble("max"));
+            values.add(temperatureObject.getDouble("min"));
+            values.add((double) dayForecast.getInt("humidity"));
+            values.add(dayForecast.getDouble("pressure"));
+            values.add(dayForecast.getDouble("speed"));
+            values.add(dayForecast.getDouble("deg"));
+            values.add((double) weatherObject.getInt("id"));
+        }
+        return values;
+    }
+
+    public void testParsesLikeTheJsonObjectDecoder() throws Exception {
+        String json = response(14, RECORDED_DAY);
+        List<Double> values = parse(json);
+        assertEquals(2 + 14 * 7, values.size());
+        assertEquals(parseDom(json), values);
+    }
+
+    public void testTruncatesWholeNumbersSentWithAFraction() throws Exception {
+        String json = response(1, RECORDED_DAY.replace("\"humidity\":64", "\"humidity\":64.6")
+                .replace("\"id\":800", "\"id\":800.0"));
+        List<Double> values = parse(json);
+        assertEquals(64.0, values.get(2 + 2));
+        assertEquals(800.0, values.get(2 + 6));
+        assertEquals(parseDom(json), values);
+    }
+
+    public void testDayWithoutARequiredFieldFailsTheResponse() throws Exception {
+        String[] removed = {
+                "\"pressure\":1012.36,",
+                "\"humidity\":64,",
+                "\"speed\":3.21,",
+                ",\"deg\":292",
+                "\"max\":18.72,",
+                "\"min\":9.11,",
+                "\"id\":800,",
+                "\"main\":\"Clear\",",
+        };
+        for (String field : removed) {
+            String json = response(3, RECORDED_DAY.replace(field, ""));
+            try {
+                parse(json);
+                fail("a day without " + field + " was parsed");
+            } catch (IOException expected) {
+                // the response is dropped, as with a JSONException before
+            }
+        }
+    }
+
+    public void testCityWithoutARequiredFieldFailsTheResponse() throws Exception {
+        String[] removed = {
+                "\"name\":\"Mountain View\",",
+                "\"lon\":-122.083847,",
+                ",\"lat\":37.386051",
+        };
+        for (String field : removed) {
+            String json = response(3, RECORDED_DAY).replace(field, "");
+            try {
+                parse(json);
+                fail("a city without " + field + " was parsed");
+            } catch (IOException expected) {
+                // the response is dropped, as with a JSONException before
+            }
+        }
+    }
+
+    public void testDayWithoutItsDateIsParsed() throws Exception {
+        String json = response(3, RECORDED_DAY.replace("\"dt\":%d,", ""));
+        assertEquals(2 + 3 * 7, parse(json).size());
+        assertEquals(parseDom(json), parse(json));
+    }
+
+    public void testStreamingAgainstJsonObject() throws Exception {
+        for (int days : new int[]{1, 7, 14}) {
+            String json = response(days, RECORDED_DAY);
+            long dom = Long.MAX_VALUE;
+            long stream = Long.MAX_VALUE;
+            // warm both up before timing
+            parseDom(json);
+            parse(json);
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocSize();
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                parseDom(json);
+                dom = Math.min(dom, System.nanoTime() - start);
+            }
+            long domBytes = Debug.getThreadAllocSize() / RUNS;
+            Debug.resetThreadAllocSize();
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                parse(json);
+                stream = Math.min(stream, System.nanoTime() - start);
+            }
+            long streamBytes = Debug.getThreadAllocSize() / RUNS;
+            Debug.stopAllocCounting();
+
+            Log.i(LOG_TAG, days + " days, " + json.length() + " chars: JSONObject " + dom / 1000
+                    + " us " + domBytes + " bytes, JsonReader " + stream / 1000 + " us "
+                    + streamBytes + " bytes");
+        }
+    }
+}
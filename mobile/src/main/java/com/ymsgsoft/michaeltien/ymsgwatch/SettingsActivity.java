@@ -27,6 +27,7 @@ import android.preference.PreferenceManager;
 
 import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract;
 import com.ymsgsoft.michaeltien.ymsgwatch.sync.SunshineSyncAdapter;
+import com.ymsgsoft.michaeltien.ymsgwatch.sync.WearPushScheduler;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
@@ -48,6 +49,7 @@ public class SettingsActivity extends PreferenceActivity
         // For all preferences, attach an OnPreferenceChangeListener so the UI summary can be
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_extra_locations_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
     }
 
@@ -112,12 +114,13 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if ( key.equals(getString(R.string.pref_location_key)) ) {
+        if ( key.equals(getString(R.string.pref_location_key))
+                || key.equals(getString(R.string.pref_extra_locations_key)) ) {
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-            new AsyncTaskSendWearData().execute(this);
+            WearPushScheduler.getInstance(this).schedule(false);
         }
     }
 
@@ -22,7 +22,9 @@ import android.text.format.Time;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 public class Utility {
     public static String getPreferredLocation(Context context) {
@@ -31,6 +33,24 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * Returns every location the sync adapter should refresh: the preferred location first,
+     * followed by the comma separated extra locations from settings, without duplicates.
+     */
+    public static List<String> getSyncLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        List<String> locations = new ArrayList<String>();
+        locations.add(getPreferredLocation(context));
+        String extraLocations = prefs.getString(context.getString(R.string.pref_extra_locations_key), "");
+        for (String location : extraLocations.split(",")) {
+            location = location.trim();
+            if (location.length() > 0 && !locations.contains(location)) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
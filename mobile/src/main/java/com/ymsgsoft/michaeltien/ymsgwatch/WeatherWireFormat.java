@@ -0,0 +1,372 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary format of the forecast sent from the phone to the watch.
+ *
+ * The same class lives in the mobile and the wear module; keep the two copies identical.
+ *
+ * Layout, all integers as varints (signed ones zigzag encoded):
+ * <pre>
+ *   version                      1 byte
+ *   header length, header        timestamp, start date, flags, location,
+ *                                revision, base revision, horizon (appended later)
+ *   day count
+ *   per day: length, day         weather id, high, low, offset (appended later)
+ * </pre>
+ * Temperatures are tenths of a degree in the unit given by the flags.  The first high is sent
+ * as is, every later high as the change from the day before, and each low as its distance
+ * below that day's high, which keeps almost every temperature to a single byte.
+ *
+ * Header and days are length prefixed, so a newer version can append fields to either and
+ * older watches will skip what they don't know.  Every version below
+ * {@link #INCOMPATIBLE_VERSION} only appends fields and is read by every reader; a change older
+ * readers could not follow has to start there, and they reject it.
+ *
+ * A forecast with a base revision is a delta: it only holds the days that differ from the
+ * forecast with that revision, see {@link #diff} and {@link #apply}.
+ */
+public class WeatherWireFormat {
+    // fields appended since the first version left it as it was
+    public static final int VERSION = 1;
+    // the first version older readers can't make sense of
+    static final int INCOMPATIBLE_VERSION = 16;
+
+    public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int FLAG_IMPERIAL = 1;
+
+    public static class Day {
+        // days after the forecast's start date
+        public int offset;
+        public int weatherId;
+        // tenths of a degree
+        public int high;
+        public int low;
+
+        public Day() {
+        }
+
+        public Day(int offset, int weatherId, int high, int low) {
+            this.offset = offset;
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+        }
+
+        boolean sameWeather(Day day) {
+            return weatherId == day.weatherId && high == day.high && low == day.low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Day)) {
+                return false;
+            }
+            Day day = (Day) o;
+            return offset == day.offset && sameWeather(day);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((offset * 31 + weatherId) * 31 + high) * 31 + low;
+        }
+    }
+
+    public static class Forecast {
+        // when the phone produced this forecast, in milliseconds since the epoch
+        public long timestamp;
+        // normalized date of the first day, in milliseconds since the epoch
+        public long startDate;
+        public boolean isMetric;
+        public String location;
+        // increases with every forecast the phone sends, 0 if unknown
+        public long revision;
+        // the revision this forecast is a delta against, 0 for a complete forecast
+        public long baseRevision;
+        // number of days the complete forecast spans from the start date
+        public int horizon;
+        public List<Day> days = new ArrayList<Day>();
+
+        public boolean isDelta() {
+            return baseRevision != 0;
+        }
+
+        /**
+         * @return the day the given number of days after the start date, or null.
+         */
+        public Day getDay(int offset) {
+            for (Day day : days) {
+                if (day.offset == offset) {
+                    return day;
+                }
+            }
+            return null;
+        }
+
+        private Forecast copyHeader() {
+            Forecast copy = new Forecast();
+            copy.timestamp = timestamp;
+            copy.startDate = startDate;
+            copy.isMetric = isMetric;
+            copy.location = location;
+            copy.revision = revision;
+            copy.horizon = horizon;
+            return copy;
+        }
+    }
+
+    /**
+     * @return the number of whole days from one normalized date to another; rounding absorbs
+     * daylight saving shifts.
+     */
+    public static int dayOffset(long fromDate, long toDate) {
+        return (int) Math.round((toDate - fromDate) / (double) DAY_MILLIS);
+    }
+
+    /**
+     * @return true if both complete forecasts hold the same weather for the same days, whatever
+     * their timestamps and revisions.
+     */
+    public static boolean sameWeather(Forecast a, Forecast b) {
+        return a.startDate == b.startDate && a.isMetric == b.isMetric && a.horizon == b.horizon
+                && equal(a.location, b.location) && a.days.equals(b.days);
+    }
+
+    /**
+     * Build the update to send to a receiver that holds {@code base}.
+     *
+     * @param base the last complete forecast the receiver acknowledged, or null.
+     * @param current the complete forecast to bring the receiver to.
+     * @return the days of {@code current} that differ from {@code base}, or {@code current}
+     * itself if no delta against {@code base} is possible.
+     */
+    public static Forecast diff(Forecast base, Forecast current) {
+        if (base == null || base.revision == 0 || base.isDelta() || current.isDelta()
+                || base.isMetric != current.isMetric || !equal(base.location, current.location)) {
+            return current;
+        }
+        // a delta can't remove a day, so only complete forecasts without gaps can be diffed
+        if (current.days.size() != current.horizon) {
+            return current;
+        }
+        for (int i = 0; i < current.days.size(); i++) {
+            if (current.days.get(i).offset != i) {
+                return current;
+            }
+        }
+        Forecast delta = current.copyHeader();
+        delta.baseRevision = base.revision;
+        int shift = dayOffset(base.startDate, current.startDate);
+        for (Day day : current.days) {
+            Day old = base.getDay(day.offset + shift);
+            if (old == null || !old.sameWeather(day)) {
+                delta.days.add(day);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Bring a complete forecast up to date with an update received from the phone.
+     *
+     * @param base the complete forecast held so far, or null.
+     * @return the new complete forecast, or null if {@code update} is a delta against a
+     * revision other than {@code base}'s.
+     */
+    public static Forecast apply(Forecast base, Forecast update) {
+        if (!update.isDelta()) {
+            return update;
+        }
+        if (base == null || base.revision != update.baseRevision) {
+            return null;
+        }
+        Forecast result = update.copyHeader();
+        int shift = dayOffset(base.startDate, update.startDate);
+        for (int offset = 0; offset < update.horizon; offset++) {
+            Day day = update.getDay(offset);
+            if (day == null) {
+                Day old = base.getDay(offset + shift);
+                if (old == null) {
+                    return null;
+                }
+                day = new Day(offset, old.weatherId, old.high, old.low);
+            }
+            result.days.add(day);
+        }
+        return result;
+    }
+
+    public static byte[] encode(Forecast forecast) {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(32);
+        writeVarLong(header, forecast.timestamp);
+        writeVarLong(header, forecast.startDate);
+        writeVarLong(header, forecast.isMetric ? 0 : FLAG_IMPERIAL);
+        byte[] location = toUtf8(forecast.location == null ? "" : forecast.location);
+        writeVarLong(header, location.length);
+        header.write(location, 0, location.length);
+        writeVarLong(header, forecast.revision);
+        writeVarLong(header, forecast.baseRevision);
+        writeVarLong(header, forecast.horizon);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + header.size() + forecast.days.size() * 7);
+        out.write(VERSION);
+        writeVarLong(out, header.size());
+        out.write(header.toByteArray(), 0, header.size());
+        writeVarLong(out, forecast.days.size());
+
+        ByteArrayOutputStream dayOut = new ByteArrayOutputStream(8);
+        int previousHigh = 0;
+        for (Day day : forecast.days) {
+            dayOut.reset();
+            writeVarLong(dayOut, day.weatherId);
+            writeVarLong(dayOut, zigzag(day.high - previousHigh));
+            writeVarLong(dayOut, zigzag(day.high - day.low));
+            writeVarLong(dayOut, day.offset);
+            previousHigh = day.high;
+            writeVarLong(out, dayOut.size());
+            out.write(dayOut.toByteArray(), 0, dayOut.size());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode data of any compatible version, newer ones included: fields this version doesn't
+     * know are skipped.
+     *
+     * @throws IllegalArgumentException if the data is truncated or from an incompatible version.
+     */
+    public static Forecast decode(byte[] data) {
+        Reader in = new Reader(data);
+        int version = in.readByte();
+        if (version < 1 || version >= INCOMPATIBLE_VERSION) {
+            throw new IllegalArgumentException("Unsupported weather data version " + version);
+        }
+        Forecast forecast = new Forecast();
+
+        int headerEnd = in.readLength();
+        forecast.timestamp = in.readVarLong();
+        forecast.startDate = in.readVarLong();
+        forecast.isMetric = (in.readVarLong() & FLAG_IMPERIAL) == 0;
+        forecast.location = in.readUtf8(in.readLength());
+        boolean hasHorizon = in.hasMore(headerEnd);
+        if (hasHorizon) {
+            forecast.revision = in.readVarLong();
+            forecast.baseRevision = in.readVarLong();
+            forecast.horizon = (int) in.readVarLong();
+        }
+        in.skipTo(headerEnd);
+
+        int dayCount = (int) in.readVarLong();
+        int previousHigh = 0;
+        for (int i = 0; i < dayCount; i++) {
+            int dayEnd = in.readLength();
+            Day day = new Day();
+            day.weatherId = (int) in.readVarLong();
+            day.high = previousHigh + unzigzag(in.readVarLong());
+            day.low = day.high - unzigzag(in.readVarLong());
+            // the first writers sent every day, in order
+            day.offset = in.hasMore(dayEnd) ? (int) in.readVarLong() : i;
+            previousHigh = day.high;
+            in.skipTo(dayEnd);
+            forecast.days.add(day);
+        }
+        if (!hasHorizon) {
+            forecast.horizon = dayCount;
+        }
+        return forecast;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xffffffffL;
+    }
+
+    private static int unzigzag(long value) {
+        int n = (int) value;
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static byte[] toUtf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] mData;
+        private int mPosition;
+
+        Reader(byte[] data) {
+            mData = data;
+        }
+
+        int readByte() {
+            if (mPosition >= mData.length) {
+                throw new IllegalArgumentException("Truncated weather data");
+            }
+            return mData[mPosition++] & 0xff;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in weather data");
+        }
+
+        // Reads a length and returns the position the block it prefixes ends at
+        int readLength() {
+            long length = readVarLong();
+            if (length < 0 || length > mData.length - mPosition) {
+                throw new IllegalArgumentException("Truncated weather data");
+            }
+            return mPosition + (int) length;
+        }
+
+        // Reads the string up to the end of a block returned by readLength()
+        String readUtf8(int end) {
+            try {
+                String s = new String(mData, mPosition, end - mPosition, "UTF-8");
+                mPosition = end;
+                return s;
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        // True if the block ending at end still has fields, appended after the ones read
+        boolean hasMore(int end) {
+            return mPosition < end;
+        }
+
+        void skipTo(int end) {
+            if (mPosition > end) {
+                throw new IllegalArgumentException("Malformed weather data");
+            }
+            mPosition = end;
+        }
+    }
+}
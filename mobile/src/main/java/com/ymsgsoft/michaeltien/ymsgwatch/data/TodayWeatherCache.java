@@ -0,0 +1,179 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract.LocationEntry;
+import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of single-day forecasts, keyed by location setting and date.
+ *
+ * "Today's weather for the preferred location" is asked for by the notification, the watch
+ * service and the detail view over and over, and only changes when the sync writes.  The
+ * provider serves those lookups from here and calls {@link #invalidate()} after every committed
+ * write.  A lookup that raced with a write is not stored, see {@link #put}.
+ */
+public class TodayWeatherCache {
+    // Every column of the weather/location join, qualified so the two _id columns don't clash
+    static final String[] ALL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_FORECAST_DIGEST
+    };
+
+    private static final int MAX_ENTRIES = 8;
+
+    private static final TodayWeatherCache sInstance = new TodayWeatherCache();
+
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_ENTRIES);
+    private final AtomicLong mGeneration = new AtomicLong();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * One cached day: the join row, addressable by qualified and, where unambiguous, bare
+     * column name.
+     */
+    static class Entry {
+        private final HashMap<String, Object> mValues = new HashMap<String, Object>();
+        private final boolean mEmpty;
+
+        /**
+         * Copy the current row of a cursor queried with {@link #ALL_COLUMNS}, or remember that
+         * there is no row if the cursor is empty.
+         */
+        Entry(Cursor cursor) {
+            mEmpty = !cursor.moveToFirst();
+            if (mEmpty) {
+                return;
+            }
+            for (int i = 0; i < ALL_COLUMNS.length; i++) {
+                Object value;
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        value = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        value = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        value = cursor.getString(i);
+                        break;
+                    default:
+                        value = null;
+                        break;
+                }
+                String column = ALL_COLUMNS[i];
+                mValues.put(column, value);
+                String bare = column.substring(column.indexOf('.') + 1);
+                if (!WeatherEntry._ID.equals(bare)) {
+                    mValues.put(bare, value);
+                }
+            }
+        }
+
+        /**
+         * @return a cursor over the cached row with the requested columns, or null if the
+         * projection asks for something the cache can't answer.
+         */
+        Cursor toCursor(String[] projection) {
+            if (projection == null) {
+                return null;
+            }
+            String[] names = new String[projection.length];
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                String column = projection[i];
+                if (!mValues.containsKey(column)) {
+                    return null;
+                }
+                // SQLite names a "table.column" result after the column alone
+                names[i] = column.substring(column.lastIndexOf('.') + 1);
+                row[i] = mValues.get(column);
+            }
+            MatrixCursor cursor = new MatrixCursor(names, 1);
+            if (!mEmpty) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+
+    public static TodayWeatherCache getInstance() {
+        return sInstance;
+    }
+
+    static String key(String locationSetting, long date) {
+        return locationSetting + '|' + date;
+    }
+
+    /**
+     * Current generation, to be read before querying the database for a missing entry.
+     */
+    long generation() {
+        return mGeneration.get();
+    }
+
+    /**
+     * @return a cursor for the day, or null on a miss.
+     */
+    Cursor get(String key, String[] projection) {
+        Entry entry = mEntries.get(key);
+        Cursor cursor = entry != null ? entry.toCursor(projection) : null;
+        if (cursor != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return cursor;
+    }
+
+    /**
+     * Store an entry read from the database, unless a write was committed since
+     * {@link #generation()} was read, in which case the entry may already be stale.
+     */
+    void put(String key, Entry entry, long generation) {
+        synchronized (this) {
+            if (generation == mGeneration.get()) {
+                mEntries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Drop every entry.  Called by the provider after each committed write.
+     */
+    void invalidate() {
+        synchronized (this) {
+            mGeneration.incrementAndGet();
+            mEntries.evictAll();
+        }
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+}
@@ -44,6 +44,24 @@ public class WeatherContract {
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
 
+    // Provider call() method that writes a whole sync in one transaction: the forecast rows in
+    // EXTRA_WEATHER_VALUES are upserted on (date, location), each location in EXTRA_LOCATION_IDS
+    // gets the matching digest from EXTRA_LOCATION_DIGESTS, and every row dated on or before
+    // EXTRA_PRUNE_DATE is deleted.  Observers are notified once.
+    public static final String METHOD_APPLY_FORECAST = "apply_forecast";
+    public static final String EXTRA_WEATHER_VALUES = "weather_values";
+    public static final String EXTRA_LOCATION_IDS = "location_ids";
+    public static final String EXTRA_LOCATION_DIGESTS = "location_digests";
+    public static final String EXTRA_PRUNE_DATE = "prune_date";
+    // Number of rows upserted, returned in the result bundle of METHOD_APPLY_FORECAST
+    public static final String RESULT_ROWS_WRITTEN = "rows_written";
+
+    // Provider call() method that looks up the _id of the location whose setting is the arg,
+    // through a compiled statement.  The result bundle holds it in RESULT_LOCATION_ID, -1 if
+    // there is no such location.
+    public static final String METHOD_FIND_LOCATION = "find_location";
+    public static final String RESULT_LOCATION_ID = "location_id";
+
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
@@ -81,6 +99,10 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Digest of the last forecast stored for this location, so a sync that brings back
+        // the same days can skip rewriting them.
+        public static final String COLUMN_FORECAST_DIGEST = "forecast_digest";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
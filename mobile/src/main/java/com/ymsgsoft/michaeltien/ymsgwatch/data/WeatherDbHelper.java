@@ -18,6 +18,7 @@ package com.ymsgsoft.michaeltien.ymsgwatch.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract.LocationEntry;
 import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract.WeatherEntry;
@@ -28,12 +29,34 @@ import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 4;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves the weather/location join, which looks rows up by location and then by date.
+    // The UNIQUE (date, location_id) index leads with the date, so it can't be used for that,
+    // while location_setting is already indexed through its UNIQUE constraint.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date_idx";
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging the sync can write while the loaders and the watch service
+        // keep reading from the pooled connections, instead of waiting for the sync transaction.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     @Override
@@ -45,7 +68,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_FORECAST_DIGEST + " TEXT " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -81,18 +105,54 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
+    /**
+     * One step of the schema history, taking the database from the previous version to the
+     * version it is registered under in {@link #MIGRATIONS}.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // Oldest version that can still be migrated in place.  Anything older is rebuilt.
+    static final int FIRST_MIGRATABLE_VERSION = 2;
+
+    // MIGRATIONS[i] upgrades version FIRST_MIGRATABLE_VERSION + i to FIRST_MIGRATABLE_VERSION + i + 1.
+    // When you bump DATABASE_VERSION, append the step here instead of dropping the tables.
+    private static final Migration[] MIGRATIONS = {
+            // 2 -> 3: per-location digest of the stored forecast
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_FORECAST_DIGEST + " TEXT");
+                }
+            },
+            // 3 -> 4: index for the weather/location join
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+    };
+
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // SQLiteOpenHelper already runs onUpgrade inside a transaction, so the steps below
+        // either all apply or leave the old schema untouched.
+        if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+            // We don't know how to migrate schemas this old.  The database is only a cache
+            // for online data, so discard it and start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - FIRST_MIGRATABLE_VERSION].migrate(sqLiteDatabase);
+        }
     }
 }
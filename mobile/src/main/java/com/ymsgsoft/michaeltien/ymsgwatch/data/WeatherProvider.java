@@ -17,25 +17,36 @@ package com.ymsgsoft.michaeltien.ymsgwatch.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.LruCache;
+
+import java.util.ArrayList;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final WeatherStatements mStatements = new WeatherStatements();
+    private final TodayWeatherCache mTodayCache = TodayWeatherCache.getInstance();
+    // Set while applyBatch runs on the calling thread, to hold back per-row notifications.
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -51,19 +62,23 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    // SQL text of the join queries, keyed by selection, sort order and projection.  The callers
+    // use a handful of constant projections, so a small cache covers them all.
+    private static final LruCache<String, String> sJoinSqlCache = new LruCache<String, String>(16);
+
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -83,14 +98,9 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return mOpenHelper.getReadableDatabase().rawQuery(
+                getWeatherByLocationSettingSql(projection, selection, sortOrder),
+                selectionArgs);
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
@@ -98,14 +108,57 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+        // A single day is served from memory until the next write
+        String cacheKey = TodayWeatherCache.key(locationSetting, date);
+        Cursor cached = mTodayCache.get(cacheKey, projection);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mTodayCache.generation();
+        Cursor dayCursor = mOpenHelper.getReadableDatabase().rawQuery(
+                getWeatherByLocationSettingSql(TodayWeatherCache.ALL_COLUMNS,
+                        sLocationSettingAndDaySelection, null),
+                new String[]{locationSetting, Long.toString(date)});
+        TodayWeatherCache.Entry entry;
+        try {
+            entry = new TodayWeatherCache.Entry(dayCursor);
+        } finally {
+            dayCursor.close();
+        }
+        mTodayCache.put(cacheKey, entry, generation);
+        cached = entry.toCursor(projection);
+        if (cached != null) {
+            return cached;
+        }
+
+        return mOpenHelper.getReadableDatabase().rawQuery(
+                getWeatherByLocationSettingSql(projection, sLocationSettingAndDaySelection, sortOrder),
+                new String[]{locationSetting, Long.toString(date)});
+    }
+
+    /**
+     * Returns the SQL for a weather/location join, building it with the query builder only the
+     * first time a projection, selection and sort order are seen.  Repeating the exact same SQL
+     * text also lets SQLite reuse the statement it already compiled for the connection.
+     */
+    private String getWeatherByLocationSettingSql(String[] projection, String selection,
+                                                  String sortOrder) {
+        StringBuilder key = new StringBuilder(selection).append('|').append(sortOrder);
+        if (projection != null) {
+            for (String column : projection) {
+                key.append('|').append(column);
+            }
+        }
+        String cacheKey = key.toString();
+        String sql = sJoinSqlCache.get(cacheKey);
+        if (sql == null) {
+            synchronized (sWeatherByLocationSettingQueryBuilder) {
+                sql = sWeatherByLocationSettingQueryBuilder.buildQuery(
+                        projection, selection, null, null, sortOrder, null);
+            }
+            sJoinSqlCache.put(cacheKey, sql);
+        }
+        return sql;
     }
 
     /*
@@ -251,7 +304,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -276,7 +329,7 @@ public class WeatherProvider extends ContentProvider {
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -310,7 +363,7 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -321,33 +374,138 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+                db.beginTransactionNonExclusive();
                 int returnCount = 0;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                    // only take the statement lock once we own the write transaction
+                    synchronized (mStatements.lock()) {
+                        for (ContentValues value : values) {
+                            long _id;
+                            if (WeatherStatements.isCompleteWeatherRow(value)) {
+                                _id = mStatements.insertWeather(db, value);
+                            } else {
+                                normalizeDate(value);
+                                _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                            }
+                            if (_id != -1) {
+                                returnCount++;
+                            }
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_APPLY_FORECAST.equals(method)) {
+            return applyForecast(extras);
+        }
+        if (WeatherContract.METHOD_FIND_LOCATION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.RESULT_LOCATION_ID,
+                    mStatements.findLocationId(mOpenHelper.getReadableDatabase(), arg));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Upsert the forecast rows, record the location digests and prune expired rows in a single
+     * transaction.  Unlike bulkInsert, an existing day is updated in place instead of going
+     * through ON CONFLICT REPLACE, which deletes and reinserts the row and its index entries.
+     */
+    private Bundle applyForecast(Bundle extras) {
+        ArrayList<ContentValues> rows =
+                extras.getParcelableArrayList(WeatherContract.EXTRA_WEATHER_VALUES);
+        long[] locationIds = extras.getLongArray(WeatherContract.EXTRA_LOCATION_IDS);
+        String[] digests = extras.getStringArray(WeatherContract.EXTRA_LOCATION_DIGESTS);
+        long pruneDate = extras.getLong(WeatherContract.EXTRA_PRUNE_DATE, 0);
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsWritten = 0;
+        int rowsPruned = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            // only take the statement lock once we own the write transaction
+            synchronized (mStatements.lock()) {
+                if (rows != null) {
+                    for (ContentValues value : rows) {
+                        mStatements.upsertWeather(db, value);
+                        rowsWritten++;
+                    }
+                }
+                if (locationIds != null && digests != null) {
+                    for (int i = 0; i < locationIds.length; i++) {
+                        mStatements.updateDigest(db, locationIds[i], digests[i]);
+                    }
+                }
+            }
+            if (pruneDate > 0) {
+                rowsPruned = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(pruneDate)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsWritten != 0 || rowsPruned != 0) {
+            notifyChange(WeatherContract.BASE_CONTENT_URI);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.RESULT_ROWS_WRITTEN, rowsWritten);
+        return result;
+    }
+
+    /**
+     * Apply the whole batch in a single transaction.  The per-operation change notifications are
+     * held back and replaced by one notification on the base URI once the batch has committed,
+     * so observers reload once per batch instead of once per row.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        mApplyingBatch.set(Boolean.TRUE);
+        db.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mApplyingBatch.set(Boolean.FALSE);
+        }
+        mTodayCache.invalidate();
+        getContext().getContentResolver().notifyChange(WeatherContract.BASE_CONTENT_URI, null);
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        // Every write ends up here; applyBatch invalidates once more after its commit
+        mTodayCache.invalidate();
+        if (Boolean.TRUE.equals(mApplyingBatch.get())) {
+            // applyBatch notifies once when the transaction commits
+            return;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mStatements.close();
         mOpenHelper.close();
         super.shutdown();
     }
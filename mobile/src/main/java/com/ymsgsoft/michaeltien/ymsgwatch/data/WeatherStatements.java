@@ -0,0 +1,245 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Compiled statements for the provider's write paths and its location lookup.
+ *
+ * Each statement is compiled once per database and then only rebound with primitive values,
+ * instead of re-parsing SQL and walking a ContentValues map on every row like
+ * {@link SQLiteDatabase#insert} does.  A SQLiteStatement keeps its bindings, so callers of the
+ * write statements must hold the lock returned by {@link #lock()} from the first bind until the
+ * statement has run.  The lookup has a lock of its own, as it runs outside any transaction.
+ */
+class WeatherStatements {
+    private static final String LOG_TAG = WeatherStatements.class.getSimpleName();
+
+    // Upsert of one forecast day.  Both statements bind the same columns in the same order, so a
+    // row is bound once for the update and, only if no row matched, once more for the insert.
+    private static final String UPDATE_WEATHER_SQL =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ? WHERE " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    // A plain INSERT still honours the table's ON CONFLICT REPLACE, as db.insert() did.
+    private static final String INSERT_WEATHER_SQL =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_DIGEST_SQL =
+            "UPDATE " + WeatherContract.LocationEntry.TABLE_NAME + " SET " +
+                    WeatherContract.LocationEntry.COLUMN_FORECAST_DIGEST + " = ? WHERE " +
+                    WeatherContract.LocationEntry._ID + " = ?";
+
+    private static final String FIND_LOCATION_SQL =
+            "SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    // The columns a row needs before it can go through the compiled weather statements
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE
+    };
+
+    private final Object mLock = new Object();
+    private SQLiteDatabase mDatabase;
+    private SQLiteStatement mUpdateWeather;
+    private SQLiteStatement mInsertWeather;
+    private SQLiteStatement mUpdateDigest;
+
+    // Taking mLock here could deadlock against a writer that holds it inside its transaction
+    // while this statement waits for a connection.
+    private final Object mFindLocationLock = new Object();
+    private SQLiteDatabase mFindLocationDatabase;
+    private SQLiteStatement mFindLocation;
+
+    Object lock() {
+        return mLock;
+    }
+
+    /**
+     * @return true if the row carries every column the compiled weather statements bind.
+     */
+    static boolean isCompleteWeatherRow(ContentValues value) {
+        for (String column : WEATHER_COLUMNS) {
+            if (value.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Update the existing row for the day and location, or insert it if there is none.
+     * Must be called with {@link #lock()} held.
+     */
+    void upsertWeather(SQLiteDatabase db, ContentValues value) {
+        prepare(db);
+        bindWeather(mUpdateWeather, value);
+        if (mUpdateWeather.executeUpdateDelete() == 0) {
+            bindWeather(mInsertWeather, value);
+            mInsertWeather.executeInsert();
+        }
+    }
+
+    /**
+     * Insert the row, replacing any existing row for the same day and location.  A row that
+     * breaks a constraint is logged and skipped, as db.insert() did, so the rest of the batch is
+     * still written.  Must be called with {@link #lock()} held.
+     * @return the row id of the new row, or -1 on error.
+     */
+    long insertWeather(SQLiteDatabase db, ContentValues value) {
+        prepare(db);
+        bindWeather(mInsertWeather, value);
+        try {
+            return mInsertWeather.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            Log.e(LOG_TAG, "Error inserting " + value, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Must be called with {@link #lock()} held.
+     */
+    void updateDigest(SQLiteDatabase db, long locationId, String digest) {
+        prepare(db);
+        mUpdateDigest.clearBindings();
+        if (digest != null) {
+            mUpdateDigest.bindString(1, digest);
+        }
+        mUpdateDigest.bindLong(2, locationId);
+        mUpdateDigest.executeUpdateDelete();
+    }
+
+    /**
+     * @return the _id of the location with the given setting, or -1 if there is none.
+     */
+    long findLocationId(SQLiteDatabase db, String locationSetting) {
+        synchronized (mFindLocationLock) {
+            if (db != mFindLocationDatabase) {
+                if (mFindLocation != null) {
+                    mFindLocation.close();
+                }
+                mFindLocation = db.compileStatement(FIND_LOCATION_SQL);
+                mFindLocationDatabase = db;
+            }
+            mFindLocation.bindString(1, locationSetting);
+            try {
+                return mFindLocation.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Release the compiled statements, e.g. when the database is closed.
+     */
+    void close() {
+        synchronized (mLock) {
+            closeStatements();
+            mDatabase = null;
+        }
+        synchronized (mFindLocationLock) {
+            if (mFindLocation != null) {
+                mFindLocation.close();
+                mFindLocation = null;
+            }
+            mFindLocationDatabase = null;
+        }
+    }
+
+    // Statements belong to the database they were compiled on, so recompile when it changes.
+    private void prepare(SQLiteDatabase db) {
+        if (db == mDatabase) {
+            return;
+        }
+        closeStatements();
+        mUpdateWeather = db.compileStatement(UPDATE_WEATHER_SQL);
+        mInsertWeather = db.compileStatement(INSERT_WEATHER_SQL);
+        mUpdateDigest = db.compileStatement(UPDATE_DIGEST_SQL);
+        mDatabase = db;
+    }
+
+    private void closeStatements() {
+        if (mUpdateWeather != null) {
+            mUpdateWeather.close();
+            mInsertWeather.close();
+            mUpdateDigest.close();
+            mUpdateWeather = null;
+            mInsertWeather = null;
+            mUpdateDigest = null;
+        }
+    }
+
+    // Binds in the column order shared by UPDATE_WEATHER_SQL and INSERT_WEATHER_SQL.  A missing
+    // value is bound as NULL, as insert() did, and the table's constraints decide about it.
+    private static void bindWeather(SQLiteStatement statement, ContentValues value) {
+        statement.clearBindings();
+        String description = value.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        if (description == null) {
+            statement.bindNull(1);
+        } else {
+            statement.bindString(1, description);
+        }
+        bindLong(statement, 2, value.getAsLong(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        bindDouble(statement, 3, value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        bindDouble(statement, 4, value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+        bindDouble(statement, 5, value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY));
+        bindDouble(statement, 6, value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE));
+        bindDouble(statement, 7, value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED));
+        bindDouble(statement, 8, value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+        bindLong(statement, 9, value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        bindLong(statement, 10, date == null ? null : WeatherContract.normalizeDate(date));
+    }
+
+    private static void bindLong(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private static void bindDouble(SQLiteStatement statement, int index, Double value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+}
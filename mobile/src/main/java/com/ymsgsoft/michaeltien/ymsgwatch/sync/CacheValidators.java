@@ -0,0 +1,54 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * The HTTP side of conditional forecast requests: sending the ETag / Last-Modified validators of
+ * the last stored response, and reading the server's answer.  Where the validators are kept, and
+ * whether they may be sent at all, is up to the sync adapter.
+ */
+final class CacheValidators {
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private CacheValidators() {
+    }
+
+    /**
+     * Make the request conditional, so the server can answer 304 when nothing changed.  Must be
+     * called before the connection is made.
+     *
+     * @param etag the ETag of the stored response, or null if it had none.
+     * @param lastModified the Last-Modified time of the stored response, or 0 if it had none.
+     */
+    static void addTo(HttpURLConnection connection, String etag, long lastModified) {
+        if (etag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != 0) {
+            connection.setIfModifiedSince(lastModified);
+        }
+    }
+
+    /**
+     * @return true if the server answered that the stored response is still current.
+     */
+    static boolean isNotModified(HttpURLConnection connection) throws IOException {
+        return connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * @return the ETag of the response, null if it has none.
+     */
+    static String getEtag(HttpURLConnection connection) {
+        return connection.getHeaderField(HEADER_ETAG);
+    }
+
+    /**
+     * @return the Last-Modified time of the response, 0 if it has none.
+     */
+    static long getLastModified(HttpURLConnection connection) {
+        return connection.getLastModified();
+    }
+}
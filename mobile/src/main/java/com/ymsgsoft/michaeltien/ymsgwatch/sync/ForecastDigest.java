@@ -0,0 +1,70 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Running SHA-1 over the normalized day records of a forecast.
+ *
+ * Two forecasts with the same days produce the same digest, which lets the sync skip the
+ * database write and the wearable push when the server hands us the same data again.
+ */
+public class ForecastDigest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest mDigest;
+    private final byte[] mScratch = new byte[8];
+
+    public ForecastDigest() {
+        try {
+            mDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is guaranteed on every platform we run on
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void addDay(long date, int weatherId, double high, double low, double humidity,
+                       double pressure, double windSpeed, double degrees, String description) {
+        addLong(date);
+        addLong(weatherId);
+        addDouble(high);
+        addDouble(low);
+        addDouble(humidity);
+        addDouble(pressure);
+        addDouble(windSpeed);
+        addDouble(degrees);
+        if (description != null) {
+            mDigest.update(description.getBytes(UTF_8));
+        }
+        // terminate the record so "ab" + "c" and "a" + "bc" differ
+        mDigest.update((byte) 0);
+    }
+
+    /**
+     * Finish the digest and return it as a lower case hex string.  The digest is reset.
+     */
+    public String digest() {
+        byte[] hash = mDigest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    private void addDouble(double value) {
+        addLong(Double.doubleToLongBits(value));
+    }
+
+    private void addLong(long value) {
+        for (int i = 7; i >= 0; i--) {
+            mScratch[i] = (byte) value;
+            value >>>= 8;
+        }
+        mDigest.update(mScratch, 0, 8);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the forecasts of several locations at once on a bounded pool, for the sync adapter.
+ * Knows nothing of HTTP or Android, so the fan-out can be measured on the JVM.
+ */
+final class ForecastFetcher {
+    // how long an idle fetch thread is kept
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    interface Fetch<T> {
+        /**
+         * Fetch one location.  Runs on the pool.
+         *
+         * @return the forecast, or null if there is nothing to store for the location.
+         */
+        T fetch(String location) throws Exception;
+
+        /**
+         * A location could not be fetched.  Runs on the thread that called fetchAll.
+         */
+        void onError(String location, Throwable cause);
+    }
+
+    private ForecastFetcher() {
+    }
+
+    /**
+     * @return a pool running at most {@code parallelFetches} fetches at a time, whose threads go
+     * away when idle.
+     */
+    static ThreadPoolExecutor newExecutor(int parallelFetches) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelFetches, parallelFetches,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Fetch every location on the executor and wait for all of them.
+     *
+     * @return the forecasts that were fetched, in the order of the locations; failed locations
+     * and those with nothing to store are left out.
+     * @throws InterruptedException if interrupted while waiting, after cancelling the fetches.
+     */
+    static <T> List<T> fetchAll(ExecutorService executor, List<String> locations,
+                                final Fetch<T> fetch) throws InterruptedException {
+        List<Future<T>> futures = new ArrayList<Future<T>>(locations.size());
+        for (final String location : locations) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return fetch.fetch(location);
+                }
+            }));
+        }
+
+        List<T> fetched = new ArrayList<T>(locations.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                T forecast = futures.get(i).get();
+                if (forecast != null) {
+                    fetched.add(forecast);
+                }
+            } catch (InterruptedException e) {
+                for (Future<T> future : futures) {
+                    future.cancel(true);
+                }
+                throw e;
+            } catch (ExecutionException e) {
+                fetch.onError(locations.get(i), e.getCause());
+            }
+        }
+        return fetched;
+    }
+}
@@ -0,0 +1,279 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ *
+ * Reads straight from the network stream and hands each day to the {@link Callback} as soon as
+ * it has been decoded, so neither the raw response nor a JSONObject tree is ever held in memory.
+ *
+ * The same fields are required as the JSONObject getters it replaced required: a city without
+ * its name or coordinates, or a day without its pressure, humidity, wind, temperatures, weather
+ * id or description, fails the whole response with an IOException.  The day's "dt" is not read,
+ * the date comes from the day's position in the list.  Whole numbers sent with a fraction are
+ * truncated, as JSONObject.getInt() did.
+ *
+ * The parser is on android.util.JsonReader, which the JVM unit tests do not have (android.jar
+ * there only throws), so it is measured against the JSONObject decoder on the device, in
+ * TestForecastJsonParser.
+ */
+public class ForecastJsonParser {
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    // the fields a day cannot do without
+    private static final int HAS_PRESSURE = 1;
+    private static final int HAS_HUMIDITY = 1 << 1;
+    private static final int HAS_WINDSPEED = 1 << 2;
+    private static final int HAS_WIND_DIRECTION = 1 << 3;
+    private static final int HAS_MAX = 1 << 4;
+    private static final int HAS_MIN = 1 << 5;
+    private static final int HAS_DESCRIPTION = 1 << 6;
+    private static final int HAS_WEATHER_ID = 1 << 7;
+    private static final int HAS_REQUIRED = HAS_PRESSURE | HAS_HUMIDITY | HAS_WINDSPEED
+            | HAS_WIND_DIRECTION | HAS_MAX | HAS_MIN | HAS_DESCRIPTION | HAS_WEATHER_ID;
+
+    /**
+     * One day of forecast.  The parser reuses a single instance for the whole response, so
+     * callbacks must copy out whatever they want to keep.
+     */
+    public static class DayForecast {
+        public int index;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double high;
+        public double low;
+        public String description;
+        public int weatherId;
+
+        void clear() {
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            high = 0;
+            low = 0;
+            description = null;
+            weatherId = 0;
+        }
+    }
+
+    public interface Callback {
+        void onCity(String cityName, double lat, double lon);
+        void onDay(DayForecast day);
+    }
+
+    /**
+     * Parse the forecast from the given stream.  The stream is not closed.
+     * @return the number of days delivered to the callback.
+     */
+    public static int parse(InputStream in, Callback callback) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        int days = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY.equals(name)) {
+                readCity(reader, callback);
+            } else if (OWM_LIST.equals(name)) {
+                days = readList(reader, callback);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return days;
+    }
+
+    private static void readCity(JsonReader reader, Callback callback) throws IOException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean hasLat = false;
+        boolean hasLon = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                        hasLat = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                        hasLon = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (cityName == null) {
+            throw new IOException("Forecast city has no " + OWM_CITY_NAME);
+        } else if (!hasLat || !hasLon) {
+            throw new IOException("Forecast city " + cityName + " has no " + OWM_COORD);
+        }
+        callback.onCity(cityName, lat, lon);
+    }
+
+    private static int readList(JsonReader reader, Callback callback) throws IOException {
+        DayForecast day = new DayForecast();
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            day.clear();
+            day.index = index;
+            readDay(reader, day);
+            callback.onDay(day);
+            index++;
+        }
+        reader.endArray();
+        return index;
+    }
+
+    private static void readDay(JsonReader reader, DayForecast day) throws IOException {
+        int found = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                found |= HAS_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = nextTruncatedInt(reader);
+                found |= HAS_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                found |= HAS_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+                found |= HAS_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                found |= readTemperature(reader, day);
+            } else if (OWM_WEATHER.equals(name)) {
+                found |= readWeather(reader, day);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if ((found & HAS_REQUIRED) != HAS_REQUIRED) {
+            throw new IOException("Forecast day " + day.index + " has no " + missing(found));
+        }
+    }
+
+    private static String missing(int found) {
+        if ((found & HAS_PRESSURE) == 0) {
+            return OWM_PRESSURE;
+        } else if ((found & HAS_HUMIDITY) == 0) {
+            return OWM_HUMIDITY;
+        } else if ((found & HAS_WINDSPEED) == 0) {
+            return OWM_WINDSPEED;
+        } else if ((found & HAS_WIND_DIRECTION) == 0) {
+            return OWM_WIND_DIRECTION;
+        } else if ((found & HAS_MAX) == 0) {
+            return OWM_TEMPERATURE + "." + OWM_MAX;
+        } else if ((found & HAS_MIN) == 0) {
+            return OWM_TEMPERATURE + "." + OWM_MIN;
+        } else if ((found & HAS_WEATHER_ID) == 0) {
+            return OWM_WEATHER + "." + OWM_WEATHER_ID;
+        }
+        return OWM_WEATHER + "." + OWM_DESCRIPTION;
+    }
+
+    // JsonReader.nextInt() refuses 64.5; JSONObject.getInt(), which it replaced, truncated it
+    private static int nextTruncatedInt(JsonReader reader) throws IOException {
+        return (int) reader.nextDouble();
+    }
+
+    // Temperatures are in a child object called "temp".  Try not to name variables
+    // "temp" when working with temperature.  It confuses everybody.
+    private static int readTemperature(JsonReader reader, DayForecast day) throws IOException {
+        int found = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                day.high = reader.nextDouble();
+                found |= HAS_MAX;
+            } else if (OWM_MIN.equals(name)) {
+                day.low = reader.nextDouble();
+                found |= HAS_MIN;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return found;
+    }
+
+    // Description is in a child array called "weather", which is 1 element long.
+    // That element also contains a weather code.
+    private static int readWeather(JsonReader reader, DayForecast day) throws IOException {
+        int found = 0;
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    day.description = reader.nextString();
+                    found |= HAS_DESCRIPTION;
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    day.weatherId = nextTruncatedInt(reader);
+                    found |= HAS_WEATHER_ID;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return found;
+    }
+}
@@ -16,6 +16,7 @@ import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -32,17 +33,16 @@ import com.ymsgsoft.michaeltien.ymsgwatch.R;
 import com.ymsgsoft.michaeltien.ymsgwatch.Utility;
 import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -67,22 +67,100 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
+    // Upper bound on concurrent forecast downloads when syncing several locations.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+    private static final ThreadPoolExecutor sFetchExecutor =
+            ForecastFetcher.newExecutor(MAX_PARALLEL_FETCHES);
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
 
     @Override
-    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, final SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        final Context context = getContext();
+        String preferredLocation = Utility.getPreferredLocation(context);
+        List<String> locations = Utility.getSyncLocations(context);
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        final int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // Fetch every location in parallel, bounded by the size of the fetch pool
+        List<FetchedForecast> fetched;
+        try {
+            fetched = ForecastFetcher.fetchAll(sFetchExecutor, locations,
+                    new ForecastFetcher.Fetch<FetchedForecast>() {
+                        @Override
+                        public FetchedForecast fetch(String location) throws Exception {
+                            return fetchForecast(location, julianStartDay);
+                        }
+
+                        @Override
+                        public void onError(String location, Throwable cause) {
+                            Log.e(LOG_TAG, "Error fetching " + location, cause);
+                            syncResult.stats.numIoExceptions++;
+                        }
+                    });
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "Sync interrupted", e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // now we work exclusively in UTC
+        Time utcTime = new Time();
+        long pruneDate = utcTime.setJulianDay(julianStartDay - 1);
+        boolean preferredChanged = storeForecasts(fetched, pruneDate, preferredLocation,
+                syncResult);
+
+        if (preferredChanged) {
+            notifyWeather();
+            // notify android wear
+            WearPushScheduler.getInstance(context).schedule(false);
+        }
+        // the process may go once the sync returns, so the push goes out before that
+        WearPushScheduler.getInstance(context).awaitPending();
+        Log.d(LOG_TAG, "Sync Complete. " + fetched.size() + " of " + locations.size() + " locations fetched");
+    }
+
+    /**
+     * The parsed forecast of one location, ready to be written to the database.
+     */
+    static class FetchedForecast {
+        String locationSetting;
+        String cityName;
+        double lat;
+        double lon;
+        Vector<ContentValues> days;
+        String digest;
+        String etag;
+        long lastModified;
+    }
 
+    /**
+     * Fetch and parse the forecast for one location.  Runs on the fetch pool and does not touch
+     * the database apart from the cache validator check.
+     *
+     * @return the parsed forecast, or null if the server answered 304 or had nothing usable.
+     */
+    private FetchedForecast fetchForecast(String locationQuery, final int julianStartDay)
+            throws IOException {
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        InputStream inputStream = null;
 
         String format = "json";
         String units = "metric";
@@ -114,206 +192,268 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // Create the request to OpenWeatherMap, and open the connection
             urlConnection = (HttpURLConnection) url.openConnection();
             urlConnection.setRequestMethod("GET");
+            addCacheValidators(urlConnection, locationQuery);
             urlConnection.connect();
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
+            if (CacheValidators.isNotModified(urlConnection)) {
+                // Forecast hasn't changed since the last sync, nothing to parse or store.
+                Log.d(LOG_TAG, "Forecast not modified for " + locationQuery);
+                return null;
+            }
+
+            // Parse the forecast straight off the wire, one day at a time
+            inputStream = urlConnection.getInputStream();
             if (inputStream == null) {
                 // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+                return null;
             }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                return;
+            FetchedForecast forecast = getWeatherDataFromStream(
+                    new BufferedInputStream(inputStream), locationQuery, julianStartDay);
+            if (forecast != null) {
+                forecast.etag = CacheValidators.getEtag(urlConnection);
+                forecast.lastModified = CacheValidators.getLastModified(urlConnection);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
+            return forecast;
+        } catch (IllegalStateException e) {
+            // JsonReader reports an unexpected token this way
+            throw new IOException(e.getMessage(), e);
+        } catch (NumberFormatException e) {
+            // and a number it cannot read this way
+            throw new IOException(e.getMessage(), e);
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
-            if (reader != null) {
+            if (inputStream != null) {
                 try {
-                    reader.close();
+                    inputStream.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Read the forecast from the response stream.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * The stream is decoded with {@link ForecastJsonParser}, which hands us one day at a time,
+     * so the raw response never has to be buffered as a String or turned into a JSONObject tree.
+     *
+     * @return the parsed forecast, or null if the response had no city or no days.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
+    private FetchedForecast getWeatherDataFromStream(InputStream forecastStream,
+                                                     final String locationSetting,
+                                                     final int julianStartDay)
+            throws IOException {
+
+        // now we work exclusively in UTC
+        final Time utcTime = new Time();
+
+        final FetchedForecast forecast = new FetchedForecast();
+        forecast.locationSetting = locationSetting;
+        forecast.days = new Vector<ContentValues>(14);
+        final ForecastDigest forecastDigest = new ForecastDigest();
+
+        ForecastJsonParser.parse(forecastStream, new ForecastJsonParser.Callback() {
+            @Override
+            public void onCity(String name, double lat, double lon) {
+                forecast.cityName = name;
+                forecast.lat = lat;
+                forecast.lon = lon;
+            }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+            @Override
+            public void onDay(ForecastJsonParser.DayForecast day) {
+                // Cheating to convert this to UTC time, which is what we want anyhow
+                long dateTime = utcTime.setJulianDay(julianStartDay + day.index);
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+                ContentValues weatherValues = new ContentValues();
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+                forecast.days.add(weatherValues);
+                forecastDigest.addDay(dateTime, day.weatherId, day.high, day.low, day.humidity,
+                        day.pressure, day.windSpeed, day.windDirection, day.description);
+            }
+        });
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        if (forecast.cityName == null || forecast.days.size() == 0) {
+            Log.e(LOG_TAG, "Forecast response has no usable data for " + locationSetting);
+            return null;
+        }
+        forecast.digest = forecastDigest.digest();
+        return forecast;
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * Write all changed forecasts with a single provider call, which upserts the rows, records
+     * the new digests and prunes expired days in one transaction with one change notification.
+     * Forecasts whose digest matches the one already stored for their location are left alone.
+     * If the write fails nothing of it is kept, digests included, and the cache validators are
+     * not saved either, so the next sync fetches and writes those forecasts again.
+     *
+     * @return true if the forecast of the preferred location changed.
+     */
+    private boolean storeForecasts(List<FetchedForecast> forecasts, long pruneDate,
+                                   String preferredLocation, SyncResult syncResult) {
+        ArrayList<ContentValues> weatherRows = new ArrayList<ContentValues>();
+        List<FetchedForecast> applied = new ArrayList<FetchedForecast>(forecasts.size());
+        long[] locationIds = new long[forecasts.size()];
+        String[] digests = new String[forecasts.size()];
+        boolean preferredChanged = false;
+        for (FetchedForecast forecast : forecasts) {
+            long locationId = addLocation(forecast.locationSetting, forecast.cityName,
+                    forecast.lat, forecast.lon);
+
+            // skip the database write, change notifications and wear push when nothing changed
+            if (forecast.digest.equals(getForecastDigest(locationId))) {
+                incrementSyncCounter(R.string.pref_sync_skipped_count);
+                saveCacheValidators(forecast);
+                continue;
+            }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+            for (ContentValues weatherValues : forecast.days) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                weatherRows.add(weatherValues);
+            }
+            locationIds[applied.size()] = locationId;
+            digests[applied.size()] = forecast.digest;
+            applied.add(forecast);
+            if (forecast.locationSetting.equals(preferredLocation)) {
+                preferredChanged = true;
+            }
+        }
+        if (applied.isEmpty()) {
+            return false;
+        }
 
+        Bundle extras = new Bundle();
+        extras.putParcelableArrayList(WeatherContract.EXTRA_WEATHER_VALUES, weatherRows);
+        extras.putLongArray(WeatherContract.EXTRA_LOCATION_IDS,
+                Arrays.copyOf(locationIds, applied.size()));
+        extras.putStringArray(WeatherContract.EXTRA_LOCATION_DIGESTS,
+                Arrays.copyOf(digests, applied.size()));
+        // delete old data so we don't build up an endless history
+        extras.putLong(WeatherContract.EXTRA_PRUNE_DATE, pruneDate);
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+            getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_APPLY_FORECAST, null, extras);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error storing " + applied.size() + " forecasts", e);
+            syncResult.databaseError = true;
+            return false;
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Error storing " + applied.size() + " forecasts", e);
+            syncResult.databaseError = true;
+            return false;
+        }
 
-                double high;
-                double low;
+        for (FetchedForecast forecast : applied) {
+            incrementSyncCounter(R.string.pref_sync_applied_count);
+            saveCacheValidators(forecast);
+        }
+        return preferredChanged;
+    }
 
-                String description;
-                int weatherId;
+    private String getForecastDigest(long locationId) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_FORECAST_DIGEST},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null);
+        String digest = null;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                digest = cursor.getString(0);
+            }
+            cursor.close();
+        }
+        return digest;
+    }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+    private void incrementSyncCounter(int keyResId) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+        String key = getContext().getString(keyResId);
+        prefs.edit().putLong(key, prefs.getLong(key, 0) + 1).apply();
+    }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * @return the number of syncs whose forecast matched the stored one and were skipped.
+     */
+    public static long getSkippedSyncCount(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getLong(context.getString(R.string.pref_sync_skipped_count), 0);
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * @return the number of syncs that wrote a changed forecast to the database.
+     */
+    public static long getAppliedSyncCount(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getLong(context.getString(R.string.pref_sync_applied_count), 0);
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
+    /**
+     * Make the request conditional on the ETag / Last-Modified validators of the last forecast
+     * we stored for this location, so the server can answer 304 when nothing has changed.
+     * The validators are only sent while we still hold today's forecast for the location,
+     * otherwise a 304 would leave us with an empty cache.
+     */
+    private void addCacheValidators(HttpURLConnection urlConnection, String locationSetting) {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String etag = prefs.getString(getValidatorKey(R.string.pref_forecast_etag, locationSetting), null);
+        long lastModified = prefs.getLong(
+                getValidatorKey(R.string.pref_forecast_last_modified, locationSetting), 0);
+        if (etag == null && lastModified == 0) {
+            return;
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                notifyWeather();
-                // notify android wear
-                SunshineWatchService.syncWearWeatherData(getContext());
-            }
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        boolean haveToday = cursor != null && cursor.moveToFirst();
+        if (cursor != null) {
+            cursor.close();
+        }
+        if (!haveToday) {
+            return;
+        }
 
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+        CacheValidators.addTo(urlConnection, etag, lastModified);
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
+    /**
+     * Remember the validators of a response we have just stored, keyed by location setting.
+     */
+    private void saveCacheValidators(FetchedForecast forecast) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(getContext()).edit();
+        String etagKey = getValidatorKey(R.string.pref_forecast_etag, forecast.locationSetting);
+        if (forecast.etag != null) {
+            editor.putString(etagKey, forecast.etag);
+        } else {
+            editor.remove(etagKey);
         }
+        editor.putLong(getValidatorKey(R.string.pref_forecast_last_modified, forecast.locationSetting),
+                forecast.lastModified);
+        editor.apply();
+    }
+
+    private String getValidatorKey(int prefixResId, String locationSetting) {
+        return getContext().getString(prefixResId) + "_" + locationSetting;
     }
 
     private void notifyWeather() {
@@ -408,20 +548,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
         // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
+        Bundle found = getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_FIND_LOCATION, locationSetting, null);
+        long locationId = found == null ? -1 : found.getLong(WeatherContract.RESULT_LOCATION_ID, -1);
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
+        if (locationId == -1) {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
             ContentValues locationValues = new ContentValues();
@@ -443,7 +575,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             locationId = ContentUris.parseId(insertedUri);
         }
 
-        locationCursor.close();
         // Wait, that worked?  Yes!
         return locationId;
     }
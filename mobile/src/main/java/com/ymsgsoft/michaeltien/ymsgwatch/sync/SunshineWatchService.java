@@ -1,11 +1,14 @@
 package com.ymsgsoft.michaeltien.ymsgwatch.sync;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Base64;
 import android.util.Log;
 
-import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
@@ -15,10 +18,12 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
+import com.ymsgsoft.michaeltien.ymsgwatch.R;
 import com.ymsgsoft.michaeltien.ymsgwatch.Utility;
+import com.ymsgsoft.michaeltien.ymsgwatch.WeatherWireFormat;
 import com.ymsgsoft.michaeltien.ymsgwatch.data.WeatherContract;
 
-import java.util.concurrent.TimeUnit;
+import java.nio.ByteBuffer;
 
 /**
  * Created by Michael Tien on 2015/10/20.
@@ -29,6 +34,13 @@ public class SunshineWatchService extends WearableListenerService {
 
     static final String TAG = SunshineWatchService.class.getSimpleName();
     final String REQUEST_WEATHER_PATH = "/request_weather";
+    // Tells the watch its request arrived, so it stops repeating it
+    final String REQUEST_WEATHER_ACK_PATH = "/request_weather_ack";
+    // The watch acknowledges each forecast it stored with its revision, or 0 if it could not
+    // apply a delta and needs the complete forecast.
+    final String ACK_WEATHER_PATH = "/weather_ack";
+    // Days pushed to the watch, starting today
+    static final int PUSH_DAYS = 7;
     private static final String[] DETAIL_COLUMNS = {
             WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
             WeatherContract.WeatherEntry.COLUMN_DATE,
@@ -41,78 +53,225 @@ public class SunshineWatchService extends WearableListenerService {
     public static final int COL_WEATHER_MAX_TEMP = 2;
     public static final int COL_WEATHER_MIN_TEMP = 3;
     public static final int COL_WEATHER_CONDITION_ID = 4;
-    static private boolean mSyncFlag = false;
-    static Cursor getTodayWeatherCursor(Context context)
+    static Cursor getForecastCursor(Context context)
     {
         String locationSetting = Utility.getPreferredLocation(context);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
         Cursor cursor = context.getContentResolver().query(weatherForLocationUri,
                 DETAIL_COLUMNS,
                 null,
                 null,
-                null);
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         return cursor;
     }
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
         Log.d(TAG, "onMessageReceived");
+        Context context = getApplicationContext();
         if (REQUEST_WEATHER_PATH.equals(messageEvent.getPath()) ) {
-            Context context = getApplicationContext();
-            syncWearWeatherData(context);
+            acknowledgeRequest(context, messageEvent.getSourceNodeId());
+            // the watch asked, so it gets a push even if nothing changed
+            WearPushScheduler.getInstance(context).schedule(true);
+        } else if (ACK_WEATHER_PATH.equals(messageEvent.getPath())) {
+            byte[] payload = messageEvent.getData();
+            if (payload == null || payload.length != 8) {
+                Log.e(TAG, "Malformed acknowledgment");
+                return;
+            }
+            if (!onWeatherAcknowledged(context, ByteBuffer.wrap(payload).getLong())) {
+                WearPushScheduler.getInstance(context).schedule(true);
+            }
+        }
+        // the service may be stopped once the message is handled
+        WearPushScheduler.getInstance(context).awaitPending();
+    }
+
+    private void acknowledgeRequest(Context context, String nodeId) {
+        WearConnection connection = WearConnection.getInstance(context);
+        GoogleApiClient googleApiClient = connection.acquire();
+        if (googleApiClient == null) {
+            return;
+        }
+        try {
+            Wearable.MessageApi.sendMessage(googleApiClient, nodeId, REQUEST_WEATHER_ACK_PATH, null);
+        } finally {
+            connection.release();
         }
     }
 
     @Override
     public void onPeerConnected(Node peer) {
         super.onPeerConnected(peer);
-        Log.d(TAG, "onPeerConnected, mSyncFlag: " + mSyncFlag);
-        if ( !mSyncFlag)
-           syncWearWeatherData(getApplicationContext());
+        Log.d(TAG, "onPeerConnected");
+        // only goes out if the watch lacks the current forecast
+        WearPushScheduler scheduler = WearPushScheduler.getInstance(getApplicationContext());
+        scheduler.schedule(false);
+        scheduler.awaitPending();
     }
 
-    static int data_serial_no = 0;
-    static public void syncWearWeatherData(Context context){
-        Log.e(TAG, "syncWearWeatherData");
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
-                .addApi(Wearable.API)
-                .build();
-        ConnectionResult connectionResult =
-                googleApiClient.blockingConnect(30, TimeUnit.SECONDS);
-        if (!connectionResult.isSuccess()) {
-            Log.e(TAG, "Failed to connect to GoogleApiClient.");
-            mSyncFlag = false;
+    /**
+     * Push the forecast to the watch.  Blocks; everyone but {@link WearPushScheduler} should go
+     * through {@link WearPushScheduler#schedule} instead.
+     *
+     * @param force push even if the watch already has or was just sent the same forecast.
+     */
+    static void syncWearWeatherData(final Context context, boolean force){
+        Log.d(TAG, "syncWearWeatherData, force: " + force);
+        final long start = SystemClock.elapsedRealtime();
+        final WearConnection connection = WearConnection.getInstance(context);
+        GoogleApiClient googleApiClient = connection.acquire();
+        if (googleApiClient == null) {
             return;
         }
-        Cursor data = getTodayWeatherCursor(context);
-        if ( data != null ) {
-            if ( data.moveToFirst()) {
-                boolean isMetric = Utility.isMetric(context);
-                int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
-
-                double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-                double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-                int high_int, low_int;
-                if (isMetric) {
-                    high_int = (int) (high + 0.5);
-                    low_int = (int) (low + 0.5);
-                } else {
-                    high_int = (int) (high * 9 / 5 + 32.5);
-                    low_int = (int) (low * 9 / 5 + 32.5);
-                }
-                updateWeatherData(googleApiClient, weatherId, high_int, low_int, isMetric ? 0 : 1);
+        try {
+            WeatherWireFormat.Forecast update = prepareUpdate(context, force);
+            if (update != null) {
+                final int dayCount = update.days.size();
+                final long revision = update.revision;
+                updateWeatherData(googleApiClient, update,
+                        new ResultCallback<DataApi.DataItemResult>() {
+                            @Override
+                            public void onResult(DataApi.DataItemResult dataItemResult) {
+                                if (dataItemResult.getStatus().isSuccess()) {
+                                    long elapsed = SystemClock.elapsedRealtime() - start;
+                                    connection.recordPush(elapsed);
+                                    Log.d(TAG, "Pushed " + dayCount + " days in " + elapsed + " ms");
+                                } else {
+                                    onPushFailed(context, revision);
+                                }
+                            }
+                        });
             }
+        } finally {
+            // the client lingers after the last release, long enough for the put to go out
+            connection.release();
+        }
+    }
+
+    /**
+     * Read the forecast for the watch from the provider, give it the next revision and work
+     * out what the watch needs: only the changed days if it acknowledged an earlier forecast,
+     * everything otherwise.
+     *
+     * @param force push even if the forecast is the same as the last one pushed.
+     * @return the forecast to push, or null if there is nothing new to push.
+     */
+    static synchronized WeatherWireFormat.Forecast prepareUpdate(Context context, boolean force) {
+        Cursor data = getForecastCursor(context);
+        if (data == null) {
+            return null;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        WeatherWireFormat.Forecast current = new WeatherWireFormat.Forecast();
+        try {
+            if (!data.moveToFirst()) {
+                return null;
+            }
+            boolean isMetric = Utility.isMetric(context);
+            current.timestamp = System.currentTimeMillis();
+            current.startDate = data.getLong(COL_WEATHER_DATE);
+            current.isMetric = isMetric;
+            current.location = Utility.getPreferredLocation(context);
+            do {
+                int offset = WeatherWireFormat.dayOffset(current.startDate, data.getLong(COL_WEATHER_DATE));
+                if (offset >= PUSH_DAYS) {
+                    break;
+                }
+                current.days.add(new WeatherWireFormat.Day(offset,
+                        data.getInt(COL_WEATHER_CONDITION_ID),
+                        toWireTemperature(data.getDouble(COL_WEATHER_MAX_TEMP), isMetric),
+                        toWireTemperature(data.getDouble(COL_WEATHER_MIN_TEMP), isMetric)));
+            } while (data.moveToNext());
+        } finally {
             data.close();
-            mSyncFlag = true;
         }
+        current.horizon = current.days.size();
+
+        String pendingKey = context.getString(R.string.pref_wear_pending_forecast);
+        WeatherWireFormat.Forecast acked = loadForecast(prefs, context.getString(R.string.pref_wear_acked_forecast));
+        WeatherWireFormat.Forecast pending = loadForecast(prefs, pendingKey);
+        WeatherWireFormat.Forecast lastPushed = pending != null ? pending : acked;
+        if (!force && lastPushed != null && WeatherWireFormat.sameWeather(lastPushed, current)) {
+            Log.d(TAG, "Forecast unchanged since revision " + lastPushed.revision + ", not pushing");
+            return null;
+        }
+
+        String revisionKey = context.getString(R.string.pref_wear_revision);
+        current.revision = prefs.getLong(revisionKey, 0) + 1;
+        byte[] encoded = WeatherWireFormat.encode(current);
+        prefs.edit()
+                .putLong(revisionKey, current.revision)
+                .putString(pendingKey, Base64.encodeToString(encoded, Base64.NO_WRAP))
+                .apply();
+        return WeatherWireFormat.diff(acked, current);
+    }
+
+    /**
+     * The forecast with the given revision never reached the data layer, so it must not
+     * count as pushed.
+     */
+    static synchronized void onPushFailed(Context context, long revision) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String pendingKey = context.getString(R.string.pref_wear_pending_forecast);
+        WeatherWireFormat.Forecast pending = loadForecast(prefs, pendingKey);
+        if (pending != null && pending.revision == revision) {
+            prefs.edit().remove(pendingKey).apply();
+        }
+    }
+
+    /**
+     * The watch stored the forecast with the given revision, so later pushes can be deltas
+     * against it.  Revision 0 means the watch has no usable forecast and needs everything.
+     *
+     * @return false if the watch needs a complete forecast pushed.
+     */
+    static synchronized boolean onWeatherAcknowledged(Context context, long revision) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String ackedKey = context.getString(R.string.pref_wear_acked_forecast);
+        String pendingKey = context.getString(R.string.pref_wear_pending_forecast);
+        if (revision == 0) {
+            Log.d(TAG, "Watch asked for the complete forecast");
+            prefs.edit().remove(ackedKey).apply();
+            return false;
+        }
+        // Every delta is against the acknowledged forecast, so acks for anything but the
+        // latest push can be ignored; the next delta will just be a little larger.
+        String pending = prefs.getString(pendingKey, null);
+        WeatherWireFormat.Forecast forecast = loadForecast(prefs, pendingKey);
+        if (forecast != null && forecast.revision == revision) {
+            prefs.edit()
+                    .putString(ackedKey, pending)
+                    .remove(pendingKey)
+                    .apply();
+        }
+        return true;
     }
-    static void updateWeatherData(GoogleApiClient mGoogleApiClient, int weather_id, int high, int low, int unit) {
-        byte[] weather_data = new byte[6];
-        weather_data[0] = (byte) (weather_id & 0x0000ff);
-        weather_data[1] = (byte) (weather_id >> 8 & 0xff);
-        weather_data[2] = (byte) high;
-        weather_data[3] = (byte) low;
-        weather_data[4] = (byte) unit; // metric or imperial
-        weather_data[5] = (byte) data_serial_no++; // data_serial_no number, prevent same data not triggering onDataChanged
+
+    private static WeatherWireFormat.Forecast loadForecast(SharedPreferences prefs, String key) {
+        String stored = prefs.getString(key, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            return WeatherWireFormat.decode(Base64.decode(stored, Base64.NO_WRAP));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Dropping unreadable " + key);
+            return null;
+        }
+    }
+
+    // Celsius from the database to tenths of a degree in the unit the user picked
+    static int toWireTemperature(double celsius, boolean isMetric) {
+        double temperature = isMetric ? celsius : celsius * 9 / 5 + 32;
+        return (int) Math.round(temperature * 10);
+    }
+
+    static void updateWeatherData(GoogleApiClient mGoogleApiClient, WeatherWireFormat.Forecast forecast,
+                                  final ResultCallback<DataApi.DataItemResult> callback) {
+        // the timestamp and revision differ on every push, so a forced push reaches the watch
+        // even when the weather itself did not change
+        byte[] weather_data = WeatherWireFormat.encode(forecast);
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_PATH);
         putDataMapRequest.getDataMap().putByteArray(WEATHER_KEY, weather_data);
         PutDataRequest request = putDataMapRequest.asPutDataRequest();
@@ -125,6 +284,9 @@ public class SunshineWatchService extends WearableListenerService {
                             Log.e(TAG, "ERROR: failed to putDataItem, status code: "
                                     + dataItemResult.getStatus().getStatusCode());
                         }
+                        if (callback != null) {
+                            callback.onResult(dataItemResult);
+                        }
                     }
                 });
 
@@ -0,0 +1,160 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide, reference counted connection to the Wearable API.
+ *
+ * Every push to the watch used to build and block on a brand new GoogleApiClient and never
+ * disconnect it.  Callers now {@link #acquire()} the shared client, push, and {@link #release()}
+ * it.  The client stays connected while anyone holds it and for {@link #IDLE_DISCONNECT_SECONDS}
+ * after the last release, so bursts of pushes pay the connect cost once.
+ */
+public class WearConnection {
+    static final String TAG = WearConnection.class.getSimpleName();
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+    static final long IDLE_DISCONNECT_SECONDS = 60;
+    // how long the idle disconnect thread outlives the last disconnect it had to run
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static WearConnection sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final ScheduledExecutorService mIdleExecutor = newIdleExecutor();
+    private ScheduledFuture<?> mIdleDisconnect;
+    private int mRefCount;
+
+    // metrics, guarded by this
+    private int mConnectCount;
+    private long mTotalConnectMillis;
+    private long mLastConnectMillis;
+    private int mPushCount;
+    private long mTotalPushMillis;
+    private long mLastPushMillis;
+
+    public static synchronized WearConnection getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearConnection(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WearConnection(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    // the thread only lives while a disconnect is due, not for as long as the process
+    private static ScheduledExecutorService newIdleExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Take a reference on the shared client, connecting it if needed.  Blocks, so never call
+     * this on the main thread.  Every successful acquire must be paired with {@link #release()}.
+     *
+     * @return the connected client, or null if it could not connect (no reference is held then).
+     */
+    public GoogleApiClient acquire() {
+        synchronized (this) {
+            mRefCount++;
+            if (mIdleDisconnect != null) {
+                mIdleDisconnect.cancel(false);
+                mIdleDisconnect = null;
+            }
+        }
+        // blockingConnect returns at once when already connected and serializes concurrent
+        // callers, so it is safe to call outside the lock
+        if (!mGoogleApiClient.isConnected()) {
+            long start = SystemClock.elapsedRealtime();
+            ConnectionResult connectionResult =
+                    mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            if (!connectionResult.isSuccess()) {
+                Log.e(TAG, "Failed to connect to GoogleApiClient: " + connectionResult);
+                release();
+                return null;
+            }
+            synchronized (this) {
+                mConnectCount++;
+                mTotalConnectMillis += elapsed;
+                mLastConnectMillis = elapsed;
+            }
+            Log.d(TAG, "Connected in " + elapsed + " ms");
+        }
+        return mGoogleApiClient;
+    }
+
+    /**
+     * Drop a reference taken by {@link #acquire()}.  The client disconnects once it has been
+     * idle for {@link #IDLE_DISCONNECT_SECONDS}.
+     */
+    public synchronized void release() {
+        if (mRefCount == 0) {
+            Log.e(TAG, "release() without acquire()");
+            return;
+        }
+        if (--mRefCount == 0) {
+            mIdleDisconnect = mIdleExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (WearConnection.this) {
+                        if (mRefCount == 0) {
+                            Log.d(TAG, "Idle, disconnecting");
+                            mGoogleApiClient.disconnect();
+                        }
+                        mIdleDisconnect = null;
+                    }
+                }
+            }, IDLE_DISCONNECT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Record how long one push took, from starting it to the data item being stored.
+     */
+    public synchronized void recordPush(long elapsedMillis) {
+        mPushCount++;
+        mTotalPushMillis += elapsedMillis;
+        mLastPushMillis = elapsedMillis;
+    }
+
+    public synchronized int getConnectCount() {
+        return mConnectCount;
+    }
+
+    public synchronized long getLastConnectMillis() {
+        return mLastConnectMillis;
+    }
+
+    public synchronized long getAverageConnectMillis() {
+        return mConnectCount == 0 ? 0 : mTotalConnectMillis / mConnectCount;
+    }
+
+    public synchronized int getPushCount() {
+        return mPushCount;
+    }
+
+    public synchronized long getLastPushMillis() {
+        return mLastPushMillis;
+    }
+
+    public synchronized long getAveragePushMillis() {
+        return mPushCount == 0 ? 0 : mTotalPushMillis / mPushCount;
+    }
+}
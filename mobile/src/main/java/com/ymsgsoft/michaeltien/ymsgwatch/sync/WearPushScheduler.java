@@ -0,0 +1,138 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces requests to push the forecast to the watch.
+ *
+ * The sync, the settings screen and the watch itself all ask for pushes, often several within
+ * a second.  {@link #schedule} only arms one push {@link #DEBOUNCE_MILLIS} after the first
+ * request of a burst; every request arriving before it runs rides along.  Pushes run one at a
+ * time on a dedicated thread, which goes away when idle.
+ *
+ * Nothing keeps the process alive for that thread, so the sync and the wearable listener, which
+ * may be the only thing running, {@link #awaitPending} before they return.  That holds them for
+ * the rest of the debounce window, so every trigger is coalesced the same way: a settings
+ * change, a sync and a request from the watch within {@link #DEBOUNCE_MILLIS} of each other
+ * push once.  Triggers further apart push separately.
+ */
+public class WearPushScheduler {
+    private static final String LOG_TAG = WearPushScheduler.class.getSimpleName();
+    static final long DEBOUNCE_MILLIS = 1500;
+    // how long the push thread outlives its last push
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    interface Pusher {
+        /**
+         * @param force push even if the forecast is the same as the last one pushed.
+         */
+        void push(boolean force);
+    }
+
+    private static WearPushScheduler sInstance;
+
+    private final ScheduledExecutorService mExecutor;
+    private final Pusher mPusher;
+    private final long mDebounceMillis;
+    // held while pushing, so awaitPending can wait for a push that already left the queue
+    private final Object mPushLock = new Object();
+    private final Runnable mPushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mPushLock) {
+                boolean force;
+                synchronized (WearPushScheduler.this) {
+                    force = mForce;
+                    mForce = false;
+                    mPending = null;
+                    mPushCount++;
+                }
+                mPusher.push(force);
+            }
+        }
+    };
+
+    // guarded by this
+    private ScheduledFuture<?> mPending;
+    private boolean mForce;
+    private int mRequestCount;
+    private int mPushCount;
+
+    public static synchronized WearPushScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+            executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            sInstance = new WearPushScheduler(executor, new Pusher() {
+                @Override
+                public void push(boolean force) {
+                    SunshineWatchService.syncWearWeatherData(appContext, force);
+                }
+            }, DEBOUNCE_MILLIS);
+        }
+        return sInstance;
+    }
+
+    WearPushScheduler(ScheduledExecutorService executor, Pusher pusher, long debounceMillis) {
+        mExecutor = executor;
+        mPusher = pusher;
+        mDebounceMillis = debounceMillis;
+    }
+
+    /**
+     * Push the forecast to the watch soon, together with any other request in the same burst.
+     *
+     * @param force push even if the forecast did not change, e.g. because the watch asked.
+     */
+    public synchronized void schedule(boolean force) {
+        mRequestCount++;
+        mForce |= force;
+        if (mPending == null) {
+            mPending = mExecutor.schedule(mPushRunnable, mDebounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Wait for the pending push, if any, to go out when its debounce delay is up, or for the one
+     * already running.  Requests made meanwhile, from any thread, ride along with it.  Blocks
+     * for up to {@link #DEBOUNCE_MILLIS} plus the push itself.
+     */
+    public void awaitPending() {
+        ScheduledFuture<?> pending;
+        synchronized (this) {
+            pending = mPending;
+        }
+        if (pending == null) {
+            // wait for a push that is running
+            synchronized (mPushLock) {
+                return;
+            }
+        }
+        try {
+            pending.get();
+        } catch (CancellationException e) {
+            // nothing cancels pushes, but then there is nothing to wait for either
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Push failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public synchronized int getPushCount() {
+        return mPushCount;
+    }
+}
@@ -0,0 +1,284 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WeatherWireFormatTest {
+    private static WeatherWireFormat.Forecast forecast(int dayCount) {
+        WeatherWireFormat.Forecast forecast = new WeatherWireFormat.Forecast();
+        forecast.timestamp = 1445350000123L;
+        forecast.startDate = 1445299200000L;
+        forecast.isMetric = true;
+        forecast.location = "94043";
+        forecast.revision = 7;
+        forecast.horizon = dayCount;
+        int[] ids = {800, 801, 500, 211, 601, 741, 802};
+        for (int i = 0; i < dayCount; i++) {
+            forecast.days.add(new WeatherWireFormat.Day(i, ids[i % ids.length],
+                    215 + (i % 3) * 12 - i * 7, 118 - i * 9));
+        }
+        return forecast;
+    }
+
+    // The format this codec replaced: id in two bytes, whole degrees in signed bytes, unit, serial
+    private static byte[] encodeLegacy(int weatherId, int high, int low, int unit, int serial) {
+        byte[] data = new byte[6];
+        data[0] = (byte) (weatherId & 0xff);
+        data[1] = (byte) (weatherId >> 8 & 0xff);
+        data[2] = (byte) high;
+        data[3] = (byte) low;
+        data[4] = (byte) unit;
+        data[5] = (byte) serial;
+        return data;
+    }
+
+    private static void assertSameForecast(WeatherWireFormat.Forecast expected,
+                                           WeatherWireFormat.Forecast actual) {
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.startDate, actual.startDate);
+        assertEquals(expected.isMetric, actual.isMetric);
+        assertEquals(expected.location, actual.location);
+        assertEquals(expected.revision, actual.revision);
+        assertEquals(expected.baseRevision, actual.baseRevision);
+        assertEquals(expected.horizon, actual.horizon);
+        assertEquals(expected.days, actual.days);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        WeatherWireFormat.Forecast forecast = forecast(14);
+        assertSameForecast(forecast, WeatherWireFormat.decode(WeatherWireFormat.encode(forecast)));
+    }
+
+    @Test
+    public void roundTripExtremes() throws Exception {
+        WeatherWireFormat.Forecast forecast = forecast(0);
+        forecast.timestamp = Long.MAX_VALUE;
+        forecast.isMetric = false;
+        forecast.location = "Z\u00fcrich, CH";
+        // below -128 and above 127 whole degrees no longer wrap, and a low above the high is kept
+        forecast.revision = Long.MAX_VALUE;
+        forecast.baseRevision = Long.MAX_VALUE - 1;
+        forecast.horizon = 40;
+        forecast.days.add(new WeatherWireFormat.Day(0, Integer.MAX_VALUE, -1305, -1580));
+        forecast.days.add(new WeatherWireFormat.Day(13, 0, 1340, 1350));
+        forecast.days.add(new WeatherWireFormat.Day(39, 905, Integer.MIN_VALUE / 4, Integer.MAX_VALUE / 4));
+        assertSameForecast(forecast, WeatherWireFormat.decode(WeatherWireFormat.encode(forecast)));
+    }
+
+    @Test
+    public void emptyForecast() throws Exception {
+        WeatherWireFormat.Forecast forecast = new WeatherWireFormat.Forecast();
+        WeatherWireFormat.Forecast decoded = WeatherWireFormat.decode(WeatherWireFormat.encode(forecast));
+        assertEquals("", decoded.location);
+        assertTrue(decoded.days.isEmpty());
+    }
+
+    @Test
+    public void skipsFieldsAddedByNewerWriters() throws Exception {
+        WeatherWireFormat.Forecast forecast = forecast(1);
+        byte[] data = WeatherWireFormat.encode(forecast);
+        // Lengthen the single day block by one byte holding an unknown field.  The block starts
+        // where a forecast without days would end.
+        WeatherWireFormat.Forecast noDays = forecast(0);
+        int dayLengthAt = WeatherWireFormat.encode(noDays).length;
+        assertEquals(data.length - dayLengthAt - 1, data[dayLengthAt]);
+        byte[] extended = Arrays.copyOf(data, data.length + 1);
+        extended[dayLengthAt]++;
+        extended[data.length] = 0x2a;
+        assertSameForecast(forecast, WeatherWireFormat.decode(extended));
+    }
+
+    @Test
+    public void decodesTheFirstLayout() throws Exception {
+        // as the first phones sent it, without the fields appended since, which kept the version
+        assertEquals(1, WeatherWireFormat.VERSION);
+        // timestamp 5, date 6, metric, no location, one day: id 100, high 2.0, low 1.0
+        byte[] data = {1, 4, 5, 6, 0, 0, 1, 3, 100, 40, 20};
+        WeatherWireFormat.Forecast forecast = WeatherWireFormat.decode(data);
+        assertEquals(5, forecast.timestamp);
+        assertEquals(6, forecast.startDate);
+        assertTrue(forecast.isMetric);
+        assertFalse(forecast.isDelta());
+        assertEquals(1, forecast.horizon);
+        assertEquals(new WeatherWireFormat.Day(0, 100, 20, 10), forecast.days.get(0));
+    }
+
+    @Test
+    public void deltaHoldsOnlyChangedDays() throws Exception {
+        WeatherWireFormat.Forecast base = forecast(7);
+        WeatherWireFormat.Forecast current = forecast(7);
+        current.revision = 8;
+        current.days.get(3).high += 5;
+        current.days.get(5).weatherId = 500;
+
+        WeatherWireFormat.Forecast delta = WeatherWireFormat.diff(base, current);
+        assertTrue(delta.isDelta());
+        assertEquals(7, delta.baseRevision);
+        assertEquals(2, delta.days.size());
+        assertEquals(3, delta.days.get(0).offset);
+        assertEquals(5, delta.days.get(1).offset);
+        assertTrue(WeatherWireFormat.encode(delta).length < WeatherWireFormat.encode(current).length);
+
+        WeatherWireFormat.Forecast received = WeatherWireFormat.decode(WeatherWireFormat.encode(delta));
+        assertSameForecast(current, WeatherWireFormat.apply(base, received));
+    }
+
+    @Test
+    public void deltaFollowsTheStartDate() throws Exception {
+        WeatherWireFormat.Forecast base = forecast(7);
+        // a day later the forecast starts one day further on and has a new last day
+        WeatherWireFormat.Forecast current = forecast(0);
+        current.revision = 8;
+        current.startDate = base.startDate + WeatherWireFormat.DAY_MILLIS;
+        current.horizon = 7;
+        for (int i = 0; i < 7; i++) {
+            WeatherWireFormat.Day day = i < 6 ? base.days.get(i + 1)
+                    : new WeatherWireFormat.Day(0, 803, 160, 90);
+            current.days.add(new WeatherWireFormat.Day(i, day.weatherId, day.high, day.low));
+        }
+
+        WeatherWireFormat.Forecast delta = WeatherWireFormat.diff(base, current);
+        assertEquals(1, delta.days.size());
+        assertEquals(6, delta.days.get(0).offset);
+        assertSameForecast(current, WeatherWireFormat.apply(base, delta));
+    }
+
+    @Test
+    public void noDeltaWithoutMatchingBase() throws Exception {
+        WeatherWireFormat.Forecast base = forecast(7);
+        WeatherWireFormat.Forecast current = forecast(7);
+        current.revision = 8;
+        assertSame(current, WeatherWireFormat.diff(null, current));
+        current.isMetric = false;
+        assertSame(current, WeatherWireFormat.diff(base, current));
+        current.isMetric = true;
+
+        WeatherWireFormat.Forecast delta = WeatherWireFormat.diff(base, current);
+        assertTrue(delta.days.isEmpty());
+        assertNull(WeatherWireFormat.apply(null, delta));
+        base.revision = 6;
+        assertNull(WeatherWireFormat.apply(base, delta));
+        // a complete forecast applies to anything
+        assertSame(current, WeatherWireFormat.apply(base, current));
+    }
+
+    @Test
+    public void sameWeatherIgnoresTimestampAndRevision() throws Exception {
+        WeatherWireFormat.Forecast pushed = forecast(7);
+        WeatherWireFormat.Forecast current = forecast(7);
+        current.timestamp += 60000;
+        current.revision = 8;
+        assertTrue(WeatherWireFormat.sameWeather(pushed, current));
+        current.days.get(6).low--;
+        assertFalse(WeatherWireFormat.sameWeather(pushed, current));
+    }
+
+    @Test
+    public void decodesNewerCompatibleVersions() throws Exception {
+        // what a newer phone sends: a higher version, a header and a day with a field appended
+        // to each, which this reader knows nothing about
+        WeatherWireFormat.Forecast forecast = forecast(1);
+        byte[] data = WeatherWireFormat.encode(forecast);
+        int headerLength = data[1];
+        int dayLengthAt = 2 + headerLength + 1;
+        int dayLength = data[dayLengthAt];
+        byte[] newer = new byte[data.length + 2];
+        newer[0] = (byte) (WeatherWireFormat.INCOMPATIBLE_VERSION - 1);
+        newer[1] = (byte) (headerLength + 1);
+        System.arraycopy(data, 2, newer, 2, headerLength);
+        newer[2 + headerLength] = 0x7f;
+        newer[3 + headerLength] = data[2 + headerLength];
+        newer[dayLengthAt + 1] = (byte) (dayLength + 1);
+        System.arraycopy(data, dayLengthAt + 1, newer, dayLengthAt + 2, dayLength);
+        newer[newer.length - 1] = 0x2a;
+        assertSameForecast(forecast, WeatherWireFormat.decode(newer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIncompatibleVersion() throws Exception {
+        byte[] data = WeatherWireFormat.encode(forecast(1));
+        data[0] = (byte) WeatherWireFormat.INCOMPATIBLE_VERSION;
+        WeatherWireFormat.decode(data);
+    }
+
+    @Test
+    public void rejectsTruncatedData() throws Exception {
+        byte[] data = WeatherWireFormat.encode(forecast(3));
+        for (int length = 0; length < data.length; length++) {
+            try {
+                WeatherWireFormat.decode(Arrays.copyOf(data, length));
+                fail("decoded " + length + " of " + data.length + " bytes");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void sizeAgainstLegacyFormat() throws Exception {
+        int legacy = encodeLegacy(800, 22, 12, 0, 0).length;
+        int oneDay = WeatherWireFormat.encode(forecast(1)).length;
+        int week = WeatherWireFormat.encode(forecast(7)).length;
+        int twoWeeks = WeatherWireFormat.encode(forecast(14)).length;
+        // weather id, high, low and unit
+        assertEquals(6, legacy);
+        assertTrue(oneDay < week);
+        assertTrue(week < twoWeeks);
+        // the header (version, timestamp, date, unit, location, revisions) is paid once, and a
+        // day with ordinary temperatures costs about what the whole legacy message did
+        assertTrue(oneDay < 40);
+        assertTrue((twoWeeks - oneDay) / 13 <= legacy + 1);
+        assertTrue((week - oneDay) / 6 <= legacy + 1);
+    }
+
+    /**
+     * @return true if the timing test is to run, with WIRE_BENCHMARKS=1 in the environment or
+     * -Dwire.benchmarks=true.
+     */
+    private static boolean benchmarksEnabled() {
+        return Boolean.getBoolean("wire.benchmarks") || System.getenv("WIRE_BENCHMARKS") != null;
+    }
+
+    @Test
+    public void throughputAgainstLegacyFormat() throws Exception {
+        Assume.assumeTrue(benchmarksEnabled());
+        final int iterations = 200000;
+        WeatherWireFormat.Forecast forecast = forecast(1);
+        byte[] encoded = WeatherWireFormat.encode(forecast);
+        int sink = 0;
+        // warm up the JIT before timing
+        for (int i = 0; i < iterations; i++) {
+            sink += encodeLegacy(800, 22, 12, 0, i)[5];
+            sink += WeatherWireFormat.decode(WeatherWireFormat.encode(forecast)).days.size();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            byte[] data = encodeLegacy(800, 22, 12, 0, i);
+            sink += ((data[1] & 0xff) << 8) + (data[0] & 0xff) + data[2] + data[3];
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += WeatherWireFormat.encode(forecast).length;
+        }
+        long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += WeatherWireFormat.decode(encoded).days.get(0).high;
+        }
+        long decodeNanos = System.nanoTime() - start;
+
+        System.out.println("legacy encode+decode: " + legacyNanos / iterations + " ns/op");
+        System.out.println("v" + WeatherWireFormat.VERSION + " encode:           " + encodeNanos / iterations + " ns/op");
+        System.out.println("v" + WeatherWireFormat.VERSION + " decode:           " + decodeNanos / iterations + " ns/op");
+        // the results are used, so the loops can't be optimized away
+        assertTrue(sink != 0);
+    }
+}
@@ -0,0 +1,190 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Conditional forecast requests against a stub server on the loopback interface, which
+ * answers 304 when the validators sent match what it holds, as RFC 7232 has it.
+ */
+public class CacheValidatorsTest {
+    private static final long MODIFIED = 1419033600000L;
+
+    private HttpServer mServer;
+    private URL mUrl;
+    // what the server holds; the handler reads them on the server's thread
+    private volatile String mBody = "{\"cnt\":14}";
+    private volatile String mEtag = "\"v1\"";
+    private volatile long mLastModified = MODIFIED;
+    private volatile boolean mSendEtag = true;
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private final AtomicInteger mFull = new AtomicInteger();
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private static long parseHttpDate(String date) throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.parse(date).getTime();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/forecast", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                    String ifModifiedSince =
+                            exchange.getRequestHeaders().getFirst("If-Modified-Since");
+                    boolean notModified;
+                    if (ifNoneMatch != null) {
+                        // an ETag takes precedence over the date
+                        notModified = mSendEtag && ifNoneMatch.equals(mEtag);
+                    } else {
+                        notModified = ifModifiedSince != null
+                                && parseHttpDate(ifModifiedSince) >= mLastModified;
+                    }
+                    if (mSendEtag) {
+                        exchange.getResponseHeaders().set("ETag", mEtag);
+                    }
+                    exchange.getResponseHeaders().set("Last-Modified", httpDate(mLastModified));
+                    if (notModified) {
+                        mNotModified.incrementAndGet();
+                        exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                        return;
+                    }
+                    mFull.incrementAndGet();
+                    byte[] body = mBody.getBytes("UTF-8");
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (Exception e) {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+        mUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/forecast");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+    }
+
+    /**
+     * A request as the sync adapter makes it.
+     */
+    private static class Response {
+        final boolean notModified;
+        final String body;
+        final String etag;
+        final long lastModified;
+
+        Response(URL url, String etag, long lastModified) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            try {
+                connection.setRequestMethod("GET");
+                connection.setUseCaches(false);
+                CacheValidators.addTo(connection, etag, lastModified);
+                connection.connect();
+                notModified = CacheValidators.isNotModified(connection);
+                body = notModified ? null : read(connection.getInputStream());
+                this.etag = CacheValidators.getEtag(connection);
+                this.lastModified = CacheValidators.getLastModified(connection);
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private static String read(InputStream in) throws IOException {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, count);
+                }
+                return bytes.toString("UTF-8");
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    @Test
+    public void firstRequestIsUnconditional() throws Exception {
+        Response response = new Response(mUrl, null, 0);
+        assertFalse(response.notModified);
+        assertEquals(mBody, response.body);
+        assertEquals("\"v1\"", response.etag);
+        assertEquals(MODIFIED, response.lastModified);
+    }
+
+    @Test
+    public void matchingEtagIsAnsweredWithNotModified() throws Exception {
+        Response first = new Response(mUrl, null, 0);
+        Response second = new Response(mUrl, first.etag, first.lastModified);
+        assertTrue(second.notModified);
+        assertNull(second.body);
+        assertEquals(1, mFull.get());
+        assertEquals(1, mNotModified.get());
+    }
+
+    @Test
+    public void changedForecastIsSentAgain() throws Exception {
+        Response first = new Response(mUrl, null, 0);
+        mBody = "{\"cnt\":7}";
+        mEtag = "\"v2\"";
+        mLastModified = MODIFIED + 3600 * 1000;
+
+        Response second = new Response(mUrl, first.etag, first.lastModified);
+        assertFalse(second.notModified);
+        assertEquals("{\"cnt\":7}", second.body);
+        // the validators to send next time
+        assertEquals("\"v2\"", second.etag);
+        assertEquals(MODIFIED + 3600 * 1000, second.lastModified);
+
+        assertTrue(new Response(mUrl, second.etag, second.lastModified).notModified);
+    }
+
+    @Test
+    public void lastModifiedAloneMakesTheRequestConditional() throws Exception {
+        mSendEtag = false;
+        Response first = new Response(mUrl, null, 0);
+        assertNull(first.etag);
+        assertTrue(new Response(mUrl, first.etag, first.lastModified).notModified);
+
+        mLastModified = MODIFIED + 1000;
+        assertFalse(new Response(mUrl, first.etag, first.lastModified).notModified);
+    }
+}
@@ -0,0 +1,31 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ForecastDigestTest {
+    private static String digestOf(double high, String description) {
+        ForecastDigest digest = new ForecastDigest();
+        digest.addDay(1445299200000L, 800, high, 12.5, 60, 1013.2, 3.4, 270, description);
+        digest.addDay(1445385600000L, 501, 19.0, 11.0, 72, 1010.0, 5.1, 180, "Rain");
+        return digest.digest();
+    }
+
+    @Test
+    public void sameDaysGiveSameDigest() throws Exception {
+        assertEquals(digestOf(21.0, "Clear"), digestOf(21.0, "Clear"));
+    }
+
+    @Test
+    public void changedDayGivesDifferentDigest() throws Exception {
+        String base = digestOf(21.0, "Clear");
+        assertNotEquals(base, digestOf(21.5, "Clear"));
+        assertNotEquals(base, digestOf(21.0, "Clouds"));
+    }
+
+    @Test
+    public void digestIsHex() throws Exception {
+        assertTrue(digestOf(21.0, "Clear").matches("[0-9a-f]{40}"));
+    }
+}
@@ -0,0 +1,192 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * The sync's fan-out against a stub forecast server on the loopback interface, which answers
+ * each request after a delay standing in for the network.
+ *
+ * How the wall time of a sync grows with the number of locations is measured by
+ * {@link #wallTimeAgainstLocationCount()}, which only runs with SYNC_BENCHMARKS=1 in the
+ * environment or -Dsync.benchmarks=true.  Writing the fetched forecasts is one provider call
+ * whatever the count; TestBulkInsertBenchmark times it on the device.
+ */
+public class ForecastFetcherTest {
+    private static final int PARALLEL_FETCHES = 4;
+    private static final long LATENCY_MILLIS = 50;
+
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+    private ThreadPoolExecutor mFetchExecutor;
+    private String mBaseUrl;
+    private volatile long mLatencyMillis = LATENCY_MILLIS;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/forecast", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int inFlight = mInFlight.incrementAndGet();
+                mRequests.incrementAndGet();
+                while (true) {
+                    int max = mMaxInFlight.get();
+                    if (inFlight <= max || mMaxInFlight.compareAndSet(max, inFlight)) {
+                        break;
+                    }
+                }
+                try {
+                    Thread.sleep(mLatencyMillis);
+                    String query = exchange.getRequestURI().getQuery();
+                    if (query.endsWith("missing")) {
+                        exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                        return;
+                    }
+                    byte[] body = query.getBytes("UTF-8");
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (InterruptedException e) {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+                } finally {
+                    mInFlight.decrementAndGet();
+                    exchange.close();
+                }
+            }
+        });
+        // the server must not be what limits the fetches
+        mServerExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/forecast?q=";
+        mFetchExecutor = ForecastFetcher.newExecutor(PARALLEL_FETCHES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFetchExecutor.shutdownNow();
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    /**
+     * Fetches as the sync adapter does, the body standing in for the parsed forecast.
+     */
+    private class HttpFetch implements ForecastFetcher.Fetch<String> {
+        final List<String> failed = new ArrayList<String>();
+
+        @Override
+        public String fetch(String location) throws Exception {
+            HttpURLConnection connection =
+                    (HttpURLConnection) new URL(mBaseUrl + location).openConnection();
+            try {
+                connection.setRequestMethod("GET");
+                connection.connect();
+                InputStream in = connection.getInputStream();
+                try {
+                    StringBuilder body = new StringBuilder();
+                    int c;
+                    while ((c = in.read()) != -1) {
+                        body.append((char) c);
+                    }
+                    return body.toString();
+                } finally {
+                    in.close();
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        @Override
+        public void onError(String location, Throwable cause) {
+            assertTrue(cause instanceof IOException);
+            failed.add(location);
+        }
+    }
+
+    private static List<String> locations(int count) {
+        List<String> locations = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(Integer.toString(94000 + i));
+        }
+        return locations;
+    }
+
+    @Test
+    public void everyLocationIsFetchedAFewAtATime() throws Exception {
+        List<String> locations = locations(16);
+        HttpFetch fetch = new HttpFetch();
+        List<String> fetched = ForecastFetcher.fetchAll(mFetchExecutor, locations, fetch);
+
+        assertEquals(16, mRequests.get());
+        List<String> expected = new ArrayList<String>();
+        for (String location : locations) {
+            expected.add("q=" + location);
+        }
+        assertEquals(expected, fetched);
+        // in parallel, but never more than the pool allows
+        assertTrue(mMaxInFlight.get() > 1);
+        assertTrue(mMaxInFlight.get() <= PARALLEL_FETCHES);
+        assertTrue(fetch.failed.isEmpty());
+    }
+
+    @Test
+    public void failedLocationIsReportedAndLeftOut() throws Exception {
+        List<String> locations = locations(5);
+        locations.add(2, "missing");
+        HttpFetch fetch = new HttpFetch();
+        List<String> fetched = ForecastFetcher.fetchAll(mFetchExecutor, locations, fetch);
+
+        assertEquals(5, fetched.size());
+        assertFalse(fetched.contains("q=missing"));
+        assertEquals(1, fetch.failed.size());
+        assertEquals("missing", fetch.failed.get(0));
+    }
+
+    @Test
+    public void wallTimeAgainstLocationCount() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("sync.benchmarks")
+                || System.getenv("SYNC_BENCHMARKS") != null);
+        mLatencyMillis = 200;
+        // warm up the connections and the pool
+        ForecastFetcher.fetchAll(mFetchExecutor, locations(PARALLEL_FETCHES), new HttpFetch());
+        for (int count : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            long start = System.nanoTime();
+            List<String> fetched =
+                    ForecastFetcher.fetchAll(mFetchExecutor, locations(count), new HttpFetch());
+            long millis = (System.nanoTime() - start) / 1000000;
+            assertEquals(count, fetched.size());
+            System.out.println(count + " locations at " + mLatencyMillis + " ms each: " + millis
+                    + " ms, " + (count + PARALLEL_FETCHES - 1) / PARALLEL_FETCHES * mLatencyMillis
+                    + " ms for " + PARALLEL_FETCHES + " at a time, " + count * mLatencyMillis
+                    + " ms one by one");
+        }
+    }
+}
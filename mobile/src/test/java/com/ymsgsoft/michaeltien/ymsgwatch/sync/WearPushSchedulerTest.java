@@ -0,0 +1,176 @@
+package com.ymsgsoft.michaeltien.ymsgwatch.sync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WearPushSchedulerTest {
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private static class RecordingPusher implements WearPushScheduler.Pusher {
+        final List<Boolean> pushes = new ArrayList<Boolean>();
+        Thread lastThread;
+
+        @Override
+        public synchronized void push(boolean force) {
+            pushes.add(force);
+            lastThread = Thread.currentThread();
+        }
+
+        synchronized List<Boolean> getPushes() {
+            return new ArrayList<Boolean>(pushes);
+        }
+    }
+
+    private static void drain(ScheduledThreadPoolExecutor executor) throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void burstOfTriggersPushesOnce() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        RecordingPusher pusher = new RecordingPusher();
+        final WearPushScheduler scheduler = new WearPushScheduler(executor, pusher, DEBOUNCE_MILLIS);
+
+        // four threads standing in for the sync, the settings screen and the watch
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 25; i++) {
+                        scheduler.schedule(false);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        drain(executor);
+
+        assertEquals(100, scheduler.getRequestCount());
+        assertEquals(1, scheduler.getPushCount());
+        assertEquals(1, pusher.getPushes().size());
+        assertFalse(pusher.getPushes().get(0));
+    }
+
+    @Test
+    public void forcedTriggerForcesTheCoalescedPush() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        RecordingPusher pusher = new RecordingPusher();
+        WearPushScheduler scheduler = new WearPushScheduler(executor, pusher, DEBOUNCE_MILLIS);
+
+        scheduler.schedule(false);
+        scheduler.schedule(true);
+        scheduler.schedule(false);
+        drain(executor);
+
+        assertEquals(1, pusher.getPushes().size());
+        assertTrue(pusher.getPushes().get(0));
+    }
+
+    @Test
+    public void triggerAfterPushPushesAgain() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        RecordingPusher pusher = new RecordingPusher();
+        WearPushScheduler scheduler = new WearPushScheduler(executor, pusher, DEBOUNCE_MILLIS);
+
+        scheduler.schedule(true);
+        Thread.sleep(DEBOUNCE_MILLIS * 3);
+        assertEquals(1, pusher.getPushes().size());
+
+        scheduler.schedule(false);
+        drain(executor);
+        assertEquals(2, pusher.getPushes().size());
+        // the force flag does not leak into the next burst
+        assertFalse(pusher.getPushes().get(1));
+    }
+
+    @Test
+    public void awaitPendingCoalescesEveryTriggerOfTheWindow() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        RecordingPusher pusher = new RecordingPusher();
+        final WearPushScheduler scheduler =
+                new WearPushScheduler(executor, pusher, DEBOUNCE_MILLIS);
+
+        // a settings change, then a sync that waits for the push before returning, and the
+        // watch asking while it waits
+        scheduler.schedule(false);
+        scheduler.schedule(false);
+        Thread watch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(DEBOUNCE_MILLIS / 2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                scheduler.schedule(true);
+            }
+        });
+        watch.start();
+        scheduler.awaitPending();
+        watch.join();
+
+        // one push for all three, done by the time the sync returns
+        assertEquals(1, pusher.getPushes().size());
+        assertTrue(pusher.getPushes().get(0));
+        assertNotSame(Thread.currentThread(), pusher.lastThread);
+        assertEquals(3, scheduler.getRequestCount());
+
+        // nothing left to wait for
+        scheduler.awaitPending();
+        drain(executor);
+        assertEquals(1, scheduler.getPushCount());
+    }
+
+    @Test
+    public void awaitPendingWaitsForTheRunningPush() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final RecordingPusher recorder = new RecordingPusher();
+        WearPushScheduler scheduler = new WearPushScheduler(executor,
+                new WearPushScheduler.Pusher() {
+                    @Override
+                    public void push(boolean force) {
+                        started.countDown();
+                        try {
+                            finish.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        recorder.push(force);
+                    }
+                }, 0);
+
+        scheduler.schedule(false);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(DEBOUNCE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finish.countDown();
+            }
+        }).start();
+        scheduler.awaitPending();
+        // the push on the executor was done before awaitPending returned, and not run twice
+        assertEquals(1, recorder.getPushes().size());
+        assertNotSame(Thread.currentThread(), recorder.lastThread);
+        drain(executor);
+        assertEquals(1, recorder.getPushes().size());
+    }
+}
@@ -0,0 +1,108 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * {@link FaceCanvas} drawing to an android.graphics.Canvas.  One instance is reused for every
+ * frame, pointed at that frame's canvas with {@link #setCanvas}.
+ */
+class AndroidFaceCanvas implements FaceCanvas {
+    private static final Typeface BOLD_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    private Canvas mCanvas;
+
+    void setCanvas(Canvas canvas) {
+        mCanvas = canvas;
+    }
+
+    /**
+     * @return the platform paint for {@code facePaint}, made on first use and updated only
+     * after the face paint changed.
+     */
+    static Paint toPaint(FacePaint facePaint) {
+        Paint paint = (Paint) facePaint.platformPaint;
+        if (paint == null) {
+            paint = new Paint();
+            facePaint.platformPaint = paint;
+        }
+        if (facePaint.platformGeneration != facePaint.getGeneration()) {
+            paint.setColor(facePaint.getColor());
+            paint.setStyle(facePaint.getStyle() == FacePaint.STYLE_STROKE
+                    ? Paint.Style.STROKE : Paint.Style.FILL);
+            paint.setStrokeWidth(facePaint.getStrokeWidth());
+            paint.setAntiAlias(facePaint.isAntiAlias());
+            paint.setFilterBitmap(facePaint.isAntiAlias());
+            paint.setStrokeCap(facePaint.isRoundCap() ? Paint.Cap.ROUND : Paint.Cap.BUTT);
+            paint.setTextSize(facePaint.getTextSize());
+            paint.setTypeface(facePaint.isBold() ? BOLD_TYPEFACE : NORMAL_TYPEFACE);
+            facePaint.platformGeneration = facePaint.getGeneration();
+        }
+        return paint;
+    }
+
+    @Override
+    public void save() {
+        mCanvas.save();
+    }
+
+    @Override
+    public void rotate(float degrees, float px, float py) {
+        mCanvas.rotate(degrees, px, py);
+    }
+
+    @Override
+    public void restore() {
+        mCanvas.restore();
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        mCanvas.translate(dx, dy);
+    }
+
+    @Override
+    public void clipRect(float left, float top, float right, float bottom) {
+        mCanvas.clipRect(left, top, right, bottom);
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, FacePaint paint) {
+        mCanvas.drawRect(left, top, right, bottom, toPaint(paint));
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, FacePaint paint) {
+        mCanvas.drawCircle(cx, cy, radius, toPaint(paint));
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, FacePaint paint) {
+        mCanvas.drawLine(startX, startY, stopX, stopY, toPaint(paint));
+    }
+
+    @Override
+    public void drawLines(float[] points, int offset, int count, FacePaint paint) {
+        mCanvas.drawLines(points, offset, count, toPaint(paint));
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, FacePaint paint) {
+        mCanvas.drawText(text, x, y, toPaint(paint));
+    }
+
+    @Override
+    public float measureText(String text, FacePaint paint) {
+        return toPaint(paint).measureText(text);
+    }
+
+    @Override
+    public void drawImage(FaceImage image, float left, float top, FacePaint paint) {
+        mCanvas.drawBitmap(((AndroidFaceImage) image).getBitmap(), left, top,
+                paint == null ? null : toPaint(paint));
+    }
+}
@@ -0,0 +1,63 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * {@link FaceImage} backed by a Bitmap, ARGB_8888 unless it comes from {@link #RGB_565_FACTORY}.
+ */
+class AndroidFaceImage implements FaceImage {
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public FaceImage createImage(int width, int height) {
+            return new AndroidFaceImage(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+        }
+    };
+
+    /**
+     * Opaque images of half the depth, black to start with, for backgrounds drawn over in full.
+     * A low-bit ambient display shows no more than they hold, and they take half the memory and
+     * half the time to draw.
+     */
+    static final Factory RGB_565_FACTORY = new Factory() {
+        @Override
+        public FaceImage createImage(int width, int height) {
+            return new AndroidFaceImage(Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565));
+        }
+    };
+
+    private final Bitmap mBitmap;
+    private AndroidFaceCanvas mCanvas;
+
+    AndroidFaceImage(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return mBitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mBitmap.getHeight();
+    }
+
+    @Override
+    public FaceCanvas getCanvas() {
+        if (mCanvas == null) {
+            mCanvas = new AndroidFaceCanvas();
+            mCanvas.setCanvas(new Canvas(mBitmap));
+        }
+        return mCanvas;
+    }
+
+    @Override
+    public void recycle() {
+        mBitmap.recycle();
+    }
+}
@@ -0,0 +1,190 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link WatchBackground} kept up to date on a worker thread, double buffered, so a weather
+ * update or a new surface never holds up a frame.
+ *
+ * Every change is queued for the executor, whose thread alone touches the background.  It takes
+ * up all the changes queued, composites them into the back buffer, swaps it to the front and
+ * tells the listener.  The draw thread only reads the front buffer, and holds its lock while
+ * drawing it, so the worker can't start on it again mid-frame.  Both buffers keep their image
+ * from one render to the next; only a new surface size replaces them.
+ */
+class AsyncBackground implements WatchFace.Background {
+    /**
+     * Told, on the worker thread, when a newly rendered background is at the front.
+     */
+    interface Listener {
+        void onBackgroundReady(AsyncBackground background);
+    }
+
+    private final WatchBackground mBackground;
+    private final Executor mExecutor;
+    private final Listener mListener;
+    private final WatchBackground.Target[] mBuffers = {
+            new WatchBackground.Target(), new WatchBackground.Target()};
+    // written by the worker only
+    private volatile WatchBackground.Target mFront;
+    private final Queue<Runnable> mChanges = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean mRenderQueued = new AtomicBoolean();
+    private volatile int mSwaps;
+
+    // last bounds handed over, read and written on the draw thread only
+    private int mWidth;
+    private int mHeight;
+    private boolean mRound;
+
+    private final Runnable mRender = new Runnable() {
+        @Override
+        public void run() {
+            // changes queued after this point queue another render
+            mRenderQueued.set(false);
+            Runnable change;
+            while ((change = mChanges.poll()) != null) {
+                change.run();
+            }
+            render();
+        }
+    };
+
+    /**
+     * @param executor runs the renders one at a time, in order.
+     */
+    AsyncBackground(WatchBackground background, Executor executor, Listener listener) {
+        mBackground = background;
+        mExecutor = executor;
+        mListener = listener;
+    }
+
+    /**
+     * @return the number of renders swapped to the front.
+     */
+    int getSwaps() {
+        return mSwaps;
+    }
+
+    void setBounds(final int width, final int height, final boolean round) {
+        if (width == mWidth && height == mHeight && round == mRound) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        mRound = round;
+        update(new Runnable() {
+            @Override
+            public void run() {
+                mBackground.setBounds(width, height, round);
+            }
+        });
+    }
+
+    /**
+     * @see WatchBackground#setTextLayout(float, float, float)
+     */
+    void setTextLayout(final float xOffset, final float textSize, final float textSpacing) {
+        update(new Runnable() {
+            @Override
+            public void run() {
+                mBackground.setTextLayout(xOffset, textSize, textSpacing);
+            }
+        });
+    }
+
+    void setAntiAlias(final boolean antiAlias) {
+        update(new Runnable() {
+            @Override
+            public void run() {
+                mBackground.setAntiAlias(antiAlias);
+            }
+        });
+    }
+
+    /**
+     * @see WatchBackground#setImageFactory(FaceImage.Factory)
+     */
+    void setImageFactory(final FaceImage.Factory imageFactory) {
+        update(new Runnable() {
+            @Override
+            public void run() {
+                mBackground.setImageFactory(imageFactory);
+            }
+        });
+    }
+
+    void setWeather(final int weatherId, final int high, final int low, final boolean isMetric) {
+        update(new Runnable() {
+            @Override
+            public void run() {
+                mBackground.setWeather(weatherId, high, low, isMetric);
+            }
+        });
+    }
+
+    /**
+     * Free both buffers and the background's layers, once the work queued before is done.
+     */
+    void recycle() {
+        mWidth = 0;
+        mHeight = 0;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFront = null;
+                for (WatchBackground.Target buffer : mBuffers) {
+                    synchronized (buffer) {
+                        buffer.recycle();
+                    }
+                }
+                mBackground.recycle();
+            }
+        });
+    }
+
+    /**
+     * Draw the newest background that is ready.
+     *
+     * @return false if none is yet; the listener hears when one is.
+     */
+    @Override
+    public boolean draw(FaceCanvas canvas) {
+        WatchBackground.Target front = mFront;
+        if (front == null) {
+            return false;
+        }
+        synchronized (front) {
+            FaceImage image = front.getImage();
+            if (image == null) {
+                return false;
+            }
+            canvas.drawImage(image, 0, 0, null);
+        }
+        return true;
+    }
+
+    private void update(Runnable change) {
+        mChanges.add(change);
+        if (mRenderQueued.compareAndSet(false, true)) {
+            mExecutor.execute(mRender);
+        }
+    }
+
+    private void render() {
+        WatchBackground.Target front = mFront;
+        if (mBackground.getWidth() == 0 || mBackground.getHeight() == 0
+                || (front != null && mBackground.isCurrent(front))) {
+            return;
+        }
+        WatchBackground.Target back = front == mBuffers[0] ? mBuffers[1] : mBuffers[0];
+        synchronized (back) {
+            mBackground.render(back);
+        }
+        mFront = back;
+        mSwaps++;
+        mListener.onBackgroundReady(this);
+    }
+}
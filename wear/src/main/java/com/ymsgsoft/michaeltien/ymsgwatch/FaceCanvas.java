@@ -0,0 +1,48 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * The drawing calls the watch face renderers make.  On the watch they go to an
+ * android.graphics.Canvas through {@link AndroidFaceCanvas}; tests implement this in plain Java
+ * to check and time frames without a device.
+ *
+ * Implementations must not allocate per call, the frame path relies on it.
+ */
+interface FaceCanvas {
+    void save();
+
+    void rotate(float degrees, float px, float py);
+
+    void translate(float dx, float dy);
+
+    void restore();
+
+    /**
+     * Limit drawing to the rectangle until the matching {@link #restore()}.
+     */
+    void clipRect(float left, float top, float right, float bottom);
+
+    void drawRect(float left, float top, float right, float bottom, FacePaint paint);
+
+    void drawCircle(float cx, float cy, float radius, FacePaint paint);
+
+    void drawLine(float startX, float startY, float stopX, float stopY, FacePaint paint);
+
+    /**
+     * Draw several lines in one call, each four floats of the array: x and y of its start, then
+     * of its stop.
+     *
+     * @param count of floats, four per line.
+     */
+    void drawLines(float[] points, int offset, int count, FacePaint paint);
+
+    void drawText(String text, float x, float y, FacePaint paint);
+
+    float measureText(String text, FacePaint paint);
+
+    /**
+     * Draw an image with its top left corner at the given point.  Only the paint's anti-alias
+     * flag matters, it turns on filtering for rotated and scaled images; a null paint draws
+     * unfiltered.
+     */
+    void drawImage(FaceImage image, float left, float top, FacePaint paint);
+}
@@ -0,0 +1,28 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * An offscreen image for the watch face renderers: drawn into through {@link #getCanvas()} and
+ * onto another canvas with {@link FaceCanvas#drawImage}.  A Bitmap on the watch.
+ */
+interface FaceImage {
+    interface Factory {
+        /**
+         * @return a new image, transparent unless the factory says otherwise.
+         */
+        FaceImage createImage(int width, int height);
+    }
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @return a canvas drawing into this image; the same one on every call.
+     */
+    FaceCanvas getCanvas();
+
+    /**
+     * Free the pixels.  The image must not be used afterwards.
+     */
+    void recycle();
+}
@@ -0,0 +1,119 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * Paint for a {@link FaceCanvas}, free of android.graphics so the renderers run on the JVM.
+ *
+ * A canvas may keep the platform paint it made for this one in {@link #platformPaint}.  Every
+ * setter bumps the generation, so the canvas only copies the state over after a change instead
+ * of on every draw call.
+ */
+class FacePaint {
+    static final int STYLE_FILL = 0;
+    static final int STYLE_STROKE = 1;
+
+    private int mColor = 0xff000000;
+    private int mStyle = STYLE_FILL;
+    private float mStrokeWidth;
+    private boolean mAntiAlias;
+    private boolean mRoundCap;
+    private float mTextSize = 12;
+    private boolean mBold;
+    private int mGeneration;
+
+    // owned by the canvas that draws with this paint
+    Object platformPaint;
+    int platformGeneration = -1;
+
+    FacePaint() {
+    }
+
+    FacePaint(int color, int style, float strokeWidth) {
+        mColor = color;
+        mStyle = style;
+        mStrokeWidth = strokeWidth;
+    }
+
+    int getColor() {
+        return mColor;
+    }
+
+    void setColor(int color) {
+        if (mColor != color) {
+            mColor = color;
+            mGeneration++;
+        }
+    }
+
+    int getStyle() {
+        return mStyle;
+    }
+
+    void setStyle(int style) {
+        if (mStyle != style) {
+            mStyle = style;
+            mGeneration++;
+        }
+    }
+
+    float getStrokeWidth() {
+        return mStrokeWidth;
+    }
+
+    void setStrokeWidth(float strokeWidth) {
+        if (mStrokeWidth != strokeWidth) {
+            mStrokeWidth = strokeWidth;
+            mGeneration++;
+        }
+    }
+
+    boolean isAntiAlias() {
+        return mAntiAlias;
+    }
+
+    void setAntiAlias(boolean antiAlias) {
+        if (mAntiAlias != antiAlias) {
+            mAntiAlias = antiAlias;
+            mGeneration++;
+        }
+    }
+
+    boolean isRoundCap() {
+        return mRoundCap;
+    }
+
+    void setRoundCap(boolean roundCap) {
+        if (mRoundCap != roundCap) {
+            mRoundCap = roundCap;
+            mGeneration++;
+        }
+    }
+
+    float getTextSize() {
+        return mTextSize;
+    }
+
+    void setTextSize(float textSize) {
+        if (mTextSize != textSize) {
+            mTextSize = textSize;
+            mGeneration++;
+        }
+    }
+
+    /**
+     * Text is drawn in the bold or normal sans serif face.
+     */
+    boolean isBold() {
+        return mBold;
+    }
+
+    void setBold(boolean bold) {
+        if (mBold != bold) {
+            mBold = bold;
+            mGeneration++;
+        }
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+}
@@ -0,0 +1,189 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * Decides when the watch face needs its next frame, from what the face shows in its mode.
+ *
+ * Time is cut into slots, the span over which nothing the face shows moves: a minute in ambient
+ * mode, a second with a ticking second hand, and a fraction of a second with a smooth one, at no
+ * more than the frame rate it is given.  The next deadline is the start of the next slot.  A
+ * wakeup in a slot that already has its frame, as when a timer fires a little early or a frame
+ * was drawn for other reasons, is skipped.
+ *
+ * Wakeups, frames drawn, wakeups skipped and the time spent in each mode are counted, so the
+ * smoothness bought can be weighed against the battery it costs.
+ */
+class FrameScheduler {
+    // not visible, nothing is drawn
+    static final int MODE_OFF = 0;
+    // a frame a minute, on the system's time tick
+    static final int MODE_AMBIENT = 1;
+    // a frame a second
+    static final int MODE_TICKING = 2;
+    // up to the smooth frame rate
+    static final int MODE_SMOOTH = 3;
+    private static final String[] MODE_NAMES = {"off", "ambient", "ticking", "smooth"};
+
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final long SECOND_MS = 1000;
+
+    private final int mFramesPerSecond;
+    private int mMode = MODE_OFF;
+    private long mModeStart;
+    private final long[] mTimeInMode = new long[MODE_NAMES.length];
+    // slot of the last frame drawn, in the mode it was drawn in
+    private long mDrawnSlot = -1;
+
+    private long mWakeups;
+    private long mSkippedWakeups;
+    private long mFrames;
+
+    /**
+     * @param smoothFramesPerSecond the cap on frames a second with a smooth second hand, at most
+     * {@link WatchFaceRenderer#SECOND_STEPS}; 1 or less ticks once a second instead.
+     */
+    FrameScheduler(int smoothFramesPerSecond, long nowMs) {
+        mFramesPerSecond = Math.max(1, Math.min(smoothFramesPerSecond, WatchFaceRenderer.SECOND_STEPS));
+        mModeStart = nowMs;
+    }
+
+    /**
+     * @return whether interactive mode moves the second hand between seconds.
+     */
+    boolean isSmooth() {
+        return mFramesPerSecond > 1;
+    }
+
+    int getMode() {
+        return mMode;
+    }
+
+    /**
+     * Switch modes; interactive mode is ticking or smooth as configured.
+     */
+    void setMode(boolean visible, boolean ambient, long nowMs) {
+        int mode = !visible ? MODE_OFF : ambient ? MODE_AMBIENT
+                : isSmooth() ? MODE_SMOOTH : MODE_TICKING;
+        if (mode == mMode) {
+            return;
+        }
+        mTimeInMode[mMode] += Math.max(0, nowMs - mModeStart);
+        mModeStart = nowMs;
+        mMode = mode;
+        // the first wakeup in the new mode draws
+        mDrawnSlot = -1;
+    }
+
+    /**
+     * @return whether the mode needs a timer of its own; ambient mode has the time tick.
+     */
+    boolean isTimerNeeded() {
+        return mMode == MODE_TICKING || mMode == MODE_SMOOTH;
+    }
+
+    /**
+     * @return the milliseconds from now to the start of the next slot.
+     */
+    long getDelayMs(long nowMs) {
+        long slot = slot(nowMs);
+        long nextStart;
+        switch (mMode) {
+            case MODE_SMOOTH:
+                long second = (slot + 1) / mFramesPerSecond;
+                int step = (int) ((slot + 1) % mFramesPerSecond);
+                // rounded up, so the wakeup isn't early for the slot
+                nextStart = second * SECOND_MS
+                        + (step * SECOND_MS + mFramesPerSecond - 1) / mFramesPerSecond;
+                break;
+            case MODE_TICKING:
+                nextStart = (slot + 1) * SECOND_MS;
+                break;
+            default:
+                nextStart = (slot + 1) * MINUTE_MS;
+                break;
+        }
+        return Math.max(1, nextStart - nowMs);
+    }
+
+    /**
+     * Count a timer or time tick wakeup.
+     *
+     * @return whether a frame should be drawn for it.
+     */
+    boolean onWakeup(long nowMs) {
+        mWakeups++;
+        if (mMode == MODE_OFF || slot(nowMs) == mDrawnSlot) {
+            mSkippedWakeups++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Count a frame drawn, for whatever reason.
+     */
+    void onFrameDrawn(long nowMs) {
+        mFrames++;
+        mDrawnSlot = slot(nowMs);
+    }
+
+    long getWakeups() {
+        return mWakeups;
+    }
+
+    long getSkippedWakeups() {
+        return mSkippedWakeups;
+    }
+
+    long getFramesDrawn() {
+        return mFrames;
+    }
+
+    /**
+     * @return the milliseconds spent in the mode, the current one up to now included.
+     */
+    long getTimeInMode(int mode, long nowMs) {
+        long time = mTimeInMode[mode];
+        if (mode == mMode) {
+            time += Math.max(0, nowMs - mModeStart);
+        }
+        return time;
+    }
+
+    /**
+     * @return the counters on one line, for the log.
+     */
+    String getStats(long nowMs) {
+        StringBuilder stats = new StringBuilder();
+        stats.append(mWakeups).append(" wakeups, ").append(mSkippedWakeups).append(" skipped, ")
+                .append(mFrames).append(" frames");
+        for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+            stats.append(", ").append(MODE_NAMES[mode]).append(' ')
+                    .append(getTimeInMode(mode, nowMs) / SECOND_MS).append(" s");
+        }
+        return stats.toString();
+    }
+
+    /**
+     * @return the milliseconds into the second to draw the second hand at: the start of the
+     * slot, so frames move it by even steps however late they are drawn.
+     */
+    int getSecondHandMillis(long nowMs) {
+        if (mMode != MODE_SMOOTH) {
+            return 0;
+        }
+        int step = (int) (slot(nowMs) % mFramesPerSecond);
+        return (int) ((step * SECOND_MS + mFramesPerSecond - 1) / mFramesPerSecond);
+    }
+
+    private long slot(long nowMs) {
+        switch (mMode) {
+            case MODE_SMOOTH:
+                return nowMs / SECOND_MS * mFramesPerSecond
+                        + nowMs % SECOND_MS * mFramesPerSecond / SECOND_MS;
+            case MODE_TICKING:
+                return nowMs / SECOND_MS;
+            default:
+                return nowMs / MINUTE_MS;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Bounded cache of the icons drawn on the watch face backgrounds, decoded once and, where asked
+ * for, converted to grayscale once.  Serves them to {@link WatchBackground} as face images.
+ *
+ * Background rebuilds used to decode the logo and weather icon through getDrawable and convert
+ * them with a new bitmap, canvas, paint and color matrix each time.  With the cache warmed by
+ * {@link #preload()}, which is safe to run on any thread, they only draw.
+ */
+class IconCache implements WatchBackground.Icons {
+    static final String TAG = IconCache.class.getSimpleName();
+
+    // both icon sets, the logo and its grayscale copy come to well under this
+    private static final int MAX_BYTES = 1024 * 1024;
+
+    // one condition per icon of Utility.getIconResourceForWeatherCondition and its ambient twin
+    private static final int[] PRELOAD_CONDITIONS = {200, 300, 500, 511, 600, 701, 800, 801, 802};
+
+    private final Resources mResources;
+    private final LruCache<Long, AndroidFaceImage> mCache;
+    private final Paint mGrayscalePaint = new Paint();
+
+    IconCache(Resources resources) {
+        mResources = resources;
+        ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0);
+        mGrayscalePaint.setColorFilter(new ColorMatrixColorFilter(matrix));
+        mCache = new LruCache<Long, AndroidFaceImage>(MAX_BYTES) {
+            @Override
+            protected int sizeOf(Long key, AndroidFaceImage image) {
+                return image.getBitmap().getByteCount();
+            }
+
+            @Override
+            protected AndroidFaceImage create(Long key) {
+                int resId = (int) (key >> 1);
+                Bitmap bitmap = (key & 1) == 0 ? decode(resId) : toGrayscale(IconCache.this.get(resId));
+                return bitmap == null ? null : new AndroidFaceImage(bitmap);
+            }
+        };
+    }
+
+    private static Long key(int resId, boolean grayscale) {
+        return ((long) resId << 1) | (grayscale ? 1 : 0);
+    }
+
+    /**
+     * @return the decoded icon, or null if the resource isn't a bitmap.
+     */
+    AndroidFaceImage get(int resId) {
+        return mCache.get(key(resId, false));
+    }
+
+    /**
+     * @return the icon without color, or null if the resource isn't a bitmap.
+     */
+    AndroidFaceImage getGrayscale(int resId) {
+        return mCache.get(key(resId, true));
+    }
+
+    @Override
+    public FaceImage getLogo(boolean grayscale) {
+        return grayscale ? getGrayscale(R.drawable.ic_watch_logo) : get(R.drawable.ic_watch_logo);
+    }
+
+    @Override
+    public FaceImage getWeatherIcon(int weatherId, boolean ambient) {
+        int resId = ambient ? Utility.getAmbientIconResourceForWeatherCondition(weatherId)
+                : Utility.getIconResourceForWeatherCondition(weatherId);
+        return resId == -1 ? null : get(resId);
+    }
+
+    /**
+     * Decode every weather icon of both sets and the logo in both forms.  Blocks while it
+     * decodes, so call it off the UI thread.
+     */
+    void preload() {
+        long start = System.currentTimeMillis();
+        get(R.drawable.ic_watch_logo);
+        getGrayscale(R.drawable.ic_watch_logo);
+        for (int condition : PRELOAD_CONDITIONS) {
+            get(Utility.getIconResourceForWeatherCondition(condition));
+            get(Utility.getAmbientIconResourceForWeatherCondition(condition));
+        }
+        Log.d(TAG, "Preloaded " + mCache.size() + " bytes of icons in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private Bitmap decode(int resId) {
+        Bitmap bitmap = BitmapFactory.decodeResource(mResources, resId);
+        if (bitmap == null) {
+            Log.e(TAG, "Cannot decode icon " + resId);
+        }
+        return bitmap;
+    }
+
+    private Bitmap toGrayscale(AndroidFaceImage original) {
+        if (original == null) {
+            return null;
+        }
+        Bitmap grayscale = Bitmap.createBitmap(original.getWidth(), original.getHeight(),
+                Bitmap.Config.RGB_565);
+        // the paint is shared between threads, but only read from here on
+        new Canvas(grayscale).drawBitmap(original.getBitmap(), 0, 0, mGrayscalePaint);
+        return grayscale;
+    }
+}
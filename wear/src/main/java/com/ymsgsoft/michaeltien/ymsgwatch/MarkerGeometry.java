@@ -0,0 +1,129 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * Where the markers of the dial go on a surface, worked out once per size.  One is shared by the
+ * backgrounds of every mode, which draw the ticks from it with one
+ * {@link FaceCanvas#drawLines} call per paint instead of a trigonometric loop each.
+ *
+ * Ticks are kept as drawLines takes them, x and y of the start then of the stop of each line.
+ * Not thread safe; the backgrounds sharing one render on the same thread.
+ */
+class MarkerGeometry {
+    // floats per line
+    static final int LINE = 4;
+    // distance between the outer ring of a round dial and the inner one
+    static final float RING_SPACING = 15;
+
+    // the most a dial has: the hours, and the minutes in between on a square one
+    private final float[] mHeavyTicks = new float[12 * LINE];
+    private final float[] mThinTicks = new float[48 * LINE];
+    private int mHeavyTickCount;
+    private int mThinTickCount;
+    private float mRingRadius;
+    private float mInnerRingRadius;
+
+    private int mWidth;
+    private int mHeight;
+    private boolean mRound;
+    private int mComputations;
+
+    /**
+     * Work the markers out for a surface, unless they already are.
+     */
+    void setBounds(int width, int height, boolean round) {
+        if (width == mWidth && height == mHeight && round == mRound && mComputations > 0) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        mRound = round;
+        float centerX = width / 2f;
+        float centerY = height / 2f;
+        mHeavyTickCount = 0;
+        mThinTickCount = 0;
+        if (round) {
+            // hour ticks between two rings
+            mRingRadius = centerX - WatchFaceRenderer.SECOND_HAND_INSET;
+            mInnerRingRadius = mRingRadius - RING_SPACING;
+            for (int i = 0; i < 12; i++) {
+                float rot = ((float) i) / 6f * (float) Math.PI;
+                float sin = (float) Math.sin(rot);
+                float cos = (float) -Math.cos(rot);
+                if (i % 3 == 0) {
+                    mHeavyTickCount = addLine(mHeavyTicks, mHeavyTickCount,
+                            sin * mRingRadius + centerX, cos * mRingRadius + centerY,
+                            sin * mInnerRingRadius + centerX, cos * mInnerRingRadius + centerY);
+                } else {
+                    mThinTickCount = addLine(mThinTicks, mThinTickCount,
+                            sin * mRingRadius + centerX, cos * mRingRadius + centerY,
+                            sin * mInnerRingRadius + centerX, cos * mInnerRingRadius + centerY);
+                }
+            }
+        } else {
+            // minute ticks from the center past the corners, cut down to the edge by whoever
+            // draws them
+            float radius = (float) Math.sqrt(centerX * centerX + centerY * centerY);
+            mRingRadius = mInnerRingRadius = 0;
+            for (int i = 0; i < 60; i++) {
+                float rot = ((float) i) / 30f * (float) Math.PI;
+                float x = (float) Math.sin(rot) * radius + centerX;
+                float y = (float) -Math.cos(rot) * radius + centerY;
+                if (i % 5 == 0) {
+                    mHeavyTickCount = addLine(mHeavyTicks, mHeavyTickCount, centerX, centerY, x, y);
+                } else {
+                    mThinTickCount = addLine(mThinTicks, mThinTickCount, centerX, centerY, x, y);
+                }
+            }
+        }
+        mComputations++;
+    }
+
+    private static int addLine(float[] lines, int count, float startX, float startY, float stopX,
+                               float stopY) {
+        lines[count] = startX;
+        lines[count + 1] = startY;
+        lines[count + 2] = stopX;
+        lines[count + 3] = stopY;
+        return count + LINE;
+    }
+
+    /**
+     * @return the hour ticks; the first {@link #getHeavyTickCount()} floats are in use.
+     */
+    float[] getHeavyTicks() {
+        return mHeavyTicks;
+    }
+
+    int getHeavyTickCount() {
+        return mHeavyTickCount;
+    }
+
+    /**
+     * @return the ticks in between; the first {@link #getThinTickCount()} floats are in use.
+     */
+    float[] getThinTicks() {
+        return mThinTicks;
+    }
+
+    int getThinTickCount() {
+        return mThinTickCount;
+    }
+
+    /**
+     * @return the radius of the outer ring of a round dial, 0 on a square one.
+     */
+    float getRingRadius() {
+        return mRingRadius;
+    }
+
+    float getInnerRingRadius() {
+        return mInnerRingRadius;
+    }
+
+    /**
+     * @return how many times the markers were worked out.
+     */
+    int getComputations() {
+        return mComputations;
+    }
+}
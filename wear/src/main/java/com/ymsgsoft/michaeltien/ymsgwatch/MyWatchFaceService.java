@@ -22,16 +22,9 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -39,6 +32,7 @@ import android.os.Message;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.text.format.Time;
+import android.util.Base64;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
@@ -53,70 +47,89 @@ import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Analog watch face with a ticking second hand. In ambient mode, the second hand isn't shown. On
- * devices with low-bit ambient mode, the hands are drawn without anti-aliasing in ambient mode.
+ * Analog watch face with a ticking second hand, or a smooth one if R.integer.smooth_second_hand_fps
+ * is set. In ambient mode, the second hand isn't shown. On devices with low-bit ambient mode, the
+ * hands are drawn without anti-aliasing in ambient mode.
  */
 public class MyWatchFaceService extends CanvasWatchFaceService {
-    /**
-     * Update rate in milliseconds for interactive mode. We update once a second to advance the
-     * second hand.
-     */
-
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
 
-    private static final Typeface BOLD_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
     private static final String WEATHER_PATH = "/weather";
     private static final String WEATHER_KEY = "weather";
     private static final String REQUEST_WEATHER_PATH = "/request_weather";
-    private boolean mWeatherUpdateFlag = false;
+    private static final String ACK_WEATHER_PATH = "/weather_ack";
+    // The phone answers every weather request on this path before it pushes
+    private static final String REQUEST_WEATHER_ACK_PATH = "/request_weather_ack";
+
+    // A forecast older than this is refreshed when the face connects; the phone syncs every 3 hours
+    private static final long FRESH_FORECAST_MS = TimeUnit.HOURS.toMillis(3);
+    // Delay before repeating an unanswered weather request, doubled after every attempt
+    private static final long REQUEST_INITIAL_BACKOFF_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final long REQUEST_MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final AtomicInteger sWeatherRequestCount = new AtomicInteger();
+    private static final AtomicInteger sWeatherDataCount = new AtomicInteger();
+
+    /**
+     * @return the number of weather requests sent to the phone since the process started.
+     */
+    public static int getWeatherRequestCount() {
+        return sWeatherRequestCount.get();
+    }
 
-    class WeatherData {
-        int weather_id;
-        int high, low;
-        boolean isMetric;
+    /**
+     * @return the number of forecasts received from the phone since the process started.
+     */
+    public static int getWeatherDataCount() {
+        return sWeatherDataCount.get();
     }
+
+    private static final String TAG = MyWatchFaceService.class.getSimpleName();
+    private static final String WEATHER_STORE_FILE = "weather.bin";
+    // Where the weather was kept before WeatherStore; read once to carry it over
     static final String PREF_UDACITY_WATCH_WEATHER = "YMSGWatchPref";
-    private void saveWeatherData(WeatherData data) {
+    private void migratePreferences(WeatherStore store) {
         SharedPreferences sharedPref = this.getSharedPreferences(PREF_UDACITY_WATCH_WEATHER, Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPref.edit();
         Resources resources = getResources();
-        editor.putInt(resources.getString(R.string.pref_weather_id), data.weather_id );
-        editor.putInt(resources.getString(R.string.pref_high_temp), data.high);
-        editor.putInt(resources.getString(R.string.pref_low_temp), data.low );
-        editor.putBoolean(resources.getString(R.string.pref_is_metric), data.isMetric);
-        editor.commit();
-        mWeatherUpdateFlag = true;
-    }
-    private WeatherData loadWeatherData(){
-        WeatherData data = new WeatherData();
-        Resources resources = getResources();
-        SharedPreferences sharedPref = this.getSharedPreferences(PREF_UDACITY_WATCH_WEATHER, Context.MODE_PRIVATE);
-        data.weather_id = sharedPref.getInt(resources.getString(R.string.pref_weather_id), 0 );
-        data.high = sharedPref.getInt(resources.getString(R.string.pref_high_temp), 0 );
-        data.low = sharedPref.getInt(resources.getString(R.string.pref_low_temp), 0);
-        data.isMetric = sharedPref.getBoolean(resources.getString(R.string.pref_is_metric), false );
-        return data;
+        String weatherIdKey = resources.getString(R.string.pref_weather_id);
+        if (!sharedPref.contains(weatherIdKey))
+            return;
+        store.setWeather(sharedPref.getInt(weatherIdKey, 0),
+                sharedPref.getInt(resources.getString(R.string.pref_high_temp), 0),
+                sharedPref.getInt(resources.getString(R.string.pref_low_temp), 0),
+                sharedPref.getBoolean(resources.getString(R.string.pref_is_metric), false));
+        String stored = sharedPref.getString(resources.getString(R.string.pref_forecast), null);
+        if (stored != null) {
+            try {
+                store.setForecast(WeatherWireFormat.decode(Base64.decode(stored, Base64.NO_WRAP)));
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Dropping stored forecast: " + e.getMessage());
+            }
+        }
+        sharedPref.edit().clear().apply();
     }
     @Override
     public Engine onCreateEngine() {
@@ -124,39 +137,32 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
     }
 
     private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
+            MessageApi.MessageListener, AsyncBackground.Listener,
             GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
         final String TAG = Engine.class.getSimpleName();
-        Paint mBackgroundPaint;
-        Paint mHandPaint;
-        Paint mTextPaint;
-        boolean mAmbient;
+        WatchFace mWatchFace;
+        WatchFaceRenderer mRenderer;
+        // when to draw, and how often we did
+        FrameScheduler mScheduler;
+        // one background per mode, each composited from cached layers on mRenderExecutor
+        AsyncBackground mInteractiveBackground;
+        AsyncBackground mAmbientBackground;
+        IconCache mIconCache;
+        final AndroidFaceCanvas mFaceCanvas = new AndroidFaceCanvas();
+        // read by the render thread
+        volatile boolean mAmbient;
         Time mTime;
         /**
                * Whether the display supports fewer bits for each color in ambient mode. When true, we
                 * disable anti-aliasing in ambient mode.
                 */
         boolean mLowBitAmbient;
-        int mHandleColor;
-        int mSecHandleColor;
-        int mMarkerColor;
-        int mMarkerAmbientColor;
-        int mBackgroundColor;
-        float mHandleWidth;
-        float mSecondHandleWidth;
-        float mHeavyMarkStroke;
-        float mThinMarkStroke;
-        float mInnerRadius;
-        float mMinDelta;
-        float mHrDelta;
         boolean mIsRound;
-        int mScreenTextColor = Color.WHITE;
-        float mXOffset, mYOffset;
-
-        float mTextSpacingHeight;
-        WeatherData mWeatherData;
-        String mTempUnit; // degree C or degree F
-        Bitmap mAmbientWatchBitmap = null;
-        Bitmap mtWatchBitmap = null;
+        WeatherStore mWeatherStore;
+        // kept whole so the phone's delta pushes can be applied to it
+        WeatherWireFormat.Forecast mForecast;
+        // julian day the weather shown was picked from mForecast for
+        int mWeatherJulianDay;
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
 
@@ -176,7 +182,14 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
 
         boolean mRegisteredTimeZoneReceiver = false;
         private ScheduledExecutorService mGeneratorExecutor;
-        private ScheduledFuture<?> mDataItemGeneratorFuture;
+        private ExecutorService mRenderExecutor;
+        private final Object mRequestLock = new Object();
+        // pending weather request, null when none is needed; guarded by mRequestLock
+        private ScheduledFuture<?> mWeatherRequestFuture;
+        // bumped by every start and stop, so only the latest chain of requests goes on;
+        // guarded by mRequestLock
+        private int mRequestGeneration;
+        private long mRequestBackoffMs;
 
         @Override
         public void onConnectionFailed(ConnectionResult connectionResult) {
@@ -199,16 +212,60 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
                 if (WEATHER_PATH.equals(path)) {
                     DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
                     byte[] weather_data = dataMap.getByteArray(WEATHER_KEY);
-                    int weatherId = weather_data[1] & 0xff;
-                    weatherId = ( weatherId << 8) +  (weather_data[0] & 0xff);
-                    int high = weather_data[2];
-                    int low = weather_data[3];
-                    int unit = weather_data[4];
-                    updateWeatherData(weatherId, high, low, unit);
+                    WeatherWireFormat.Forecast update;
+                    try {
+                        update = WeatherWireFormat.decode(weather_data);
+                    } catch (IllegalArgumentException e) {
+                        Log.e(TAG, "Ignoring weather data: " + e.getMessage());
+                        continue;
+                    }
+                    if (mForecast != null && update.timestamp <= mForecast.timestamp) {
+                        // redelivered or out of order, we already have something newer
+                        Log.d(TAG, "Ignoring stale weather from " + update.timestamp);
+                        continue;
+                    }
+                    String nodeId = uri.getHost();
+                    WeatherWireFormat.Forecast forecast = WeatherWireFormat.apply(mForecast, update);
+                    if (forecast == null) {
+                        // a delta against a forecast we don't have, ask for all of it
+                        Log.d(TAG, "Cannot apply delta against revision " + update.baseRevision);
+                        sendAcknowledgment(nodeId, 0);
+                        continue;
+                    }
+                    mForecast = forecast;
+                    mWeatherStore.setForecast(forecast);
+                    sendAcknowledgment(nodeId, forecast.revision);
+                    showForecastDay();
+                    sWeatherDataCount.incrementAndGet();
+                    stopWeatherRequests();
                 }
             }
         }
 
+        private void sendAcknowledgment(String nodeId, long revision) {
+            byte[] payload = ByteBuffer.allocate(8).putLong(revision).array();
+            Wearable.MessageApi.sendMessage(mGoogleApiClient, nodeId, ACK_WEATHER_PATH, payload);
+        }
+
+        /**
+         * Show today's day of the forecast, or the nearest one we have.
+         */
+        private void showForecastDay() {
+            if (mForecast == null || mForecast.days.isEmpty())
+                return;
+            mTime.setToNow();
+            int today = Time.getJulianDay(System.currentTimeMillis(), mTime.gmtoff);
+            int offset = today - Time.getJulianDay(mForecast.startDate, mTime.gmtoff);
+            offset = Math.max(0, Math.min(offset, mForecast.horizon - 1));
+            WeatherWireFormat.Day day = mForecast.getDay(offset);
+            if (day == null)
+                day = mForecast.days.get(0);
+            mWeatherJulianDay = today;
+            // the wire carries tenths of a degree, the face shows whole degrees
+            updateWeatherData(day.weatherId, Math.round(day.high / 10f),
+                    Math.round(day.low / 10f), mForecast.isMetric ? 0 : 1);
+        }
+
         @Override
         public void onConnectionSuspended(int cause) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -222,22 +279,64 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
                 Log.d(TAG, "onConnected: " + bundle);
             }
             Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
+            Wearable.MessageApi.addListener(mGoogleApiClient, Engine.this);
+            if (!isForecastFresh())
+                startWeatherRequests();
+        }
+
+        @Override
+        public void onMessageReceived(MessageEvent messageEvent) {
+            if (REQUEST_WEATHER_ACK_PATH.equals(messageEvent.getPath())) {
+                // the phone got the request and pushes whatever it has, no need to ask again
+                Log.d(TAG, "Weather request acknowledged");
+                stopWeatherRequests();
+            }
+        }
+
+        private boolean isForecastFresh() {
+            return mForecast != null
+                    && System.currentTimeMillis() - mForecast.timestamp < FRESH_FORECAST_MS;
+        }
+
+        /**
+         * Ask the phone for the weather now, and again with exponential backoff until it
+         * acknowledges or the weather arrives.
+         */
+        private void startWeatherRequests() {
+            synchronized (mRequestLock) {
+                if (mWeatherRequestFuture != null)
+                    return;
+                mRequestBackoffMs = REQUEST_INITIAL_BACKOFF_MS;
+                mRequestGeneration++;
+                mWeatherRequestFuture = mGeneratorExecutor.schedule(
+                        new WeatherMessageGenerator(mRequestGeneration), 0, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void stopWeatherRequests() {
+            synchronized (mRequestLock) {
+                // a request already running must not schedule the next one
+                mRequestGeneration++;
+                if (mWeatherRequestFuture != null) {
+                    mWeatherRequestFuture.cancel(false);
+                    mWeatherRequestFuture = null;
+                }
+            }
         }
 
         private void updateWeatherData(int newWeatherId, int high, int low, int unit) {
-            mWeatherData.weather_id = newWeatherId;
-            mWeatherData.high = high;
-            mWeatherData.low = low;
-            mWeatherData.isMetric = unit == 0;
-            saveWeatherData(mWeatherData);
-            mWeatherUpdateFlag = true;
-            // recreate watch background
-            mAmbientWatchBitmap = null;
-            mtWatchBitmap = null;
-            invalidate();
-            if ( mDataItemGeneratorFuture != null)
-                mDataItemGeneratorFuture.cancel(true);
-            mDataItemGeneratorFuture = null;
+            mWeatherStore.setWeather(newWeatherId, high, low, unit == 0);
+            // only the weather layer of each background is drawn again, off this thread; the
+            // frame after it is ready shows it
+            mInteractiveBackground.setWeather(newWeatherId, high, low, unit == 0);
+            mAmbientBackground.setWeather(newWeatherId, high, low, unit == 0);
+        }
+
+        @Override
+        public void onBackgroundReady(AsyncBackground background) {
+            if (background == (mAmbient ? mAmbientBackground : mInteractiveBackground)) {
+                postInvalidate();
+            }
         }
 
         @Override
@@ -246,15 +345,14 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
             super.onApplyWindowInsets(insets);
             Resources resources = MyWatchFaceService.this.getResources();
             mIsRound = insets.isRound();
-            mXOffset = resources.getDimension(
+            float xOffset = resources.getDimension(
                     mIsRound ? R.dimen.x_offset_round : R.dimen.x_offset);
-
             float textSize = resources.getDimension(
                     mIsRound ? R.dimen.text_size_round : R.dimen.text_size);
-
-            mTextSpacingHeight = resources.getDimension(R.dimen.text_size);
-            mTextPaint.setTextSize(textSize);
-
+            float textSpacing = resources.getDimension(R.dimen.text_size);
+            mInteractiveBackground.setTextLayout(xOffset, textSize, textSpacing);
+            mAmbientBackground.setTextLayout(xOffset, textSize, textSpacing);
+            mRenderer.invalidateSprites();
         }
 
         @Override
@@ -269,43 +367,89 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
                     .build());
 
             Resources resources = MyWatchFaceService.this.getResources();
-            mHandleColor = resources.getColor(R.color.analog_hands);
-            mSecHandleColor = resources.getColor(R.color.second_hands);
-            mMarkerColor = resources.getColor(R.color.marker_color);
-            mMarkerAmbientColor = resources.getColor(R.color.marker_ambient_color);
-
-            mInnerRadius = resources.getDimension(R.dimen.inner_circle_radius);
-            mHandleWidth = resources.getDimension(R.dimen.analog_hand_stroke);
-            mSecondHandleWidth = resources.getDimension(R.dimen.second_hand_stroke);
-            mHeavyMarkStroke = resources.getDimension(R.dimen.heavy_mark_stroke);
-            mThinMarkStroke = resources.getDimension(R.dimen.thin_mark_stroke);
-            mMinDelta = resources.getDimension(R.dimen.min_hand_delta);
-            mHrDelta = resources.getDimension(R.dimen.hr_hand_delta);
-            mTempUnit = resources.getString(R.string.format_temperature);
-
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(mBackgroundColor);
-
-            mHandPaint = new Paint();
-            mHandPaint.setColor(mHandleColor);
-
-            mHandPaint.setStrokeWidth(mHandleWidth);
-            mHandPaint.setAntiAlias(true);
-            mHandPaint.setStrokeCap(Paint.Cap.ROUND);
-
-            mTextPaint = new Paint();
-            mTextPaint.setColor(mScreenTextColor);
-            mTextPaint.setTypeface(BOLD_TYPEFACE);
-            mTextPaint.setAntiAlias(true);
+            WatchFaceRenderer.Style style = new WatchFaceRenderer.Style();
+            style.handColor = resources.getColor(R.color.analog_hands);
+            style.secondHandColor = resources.getColor(R.color.second_hands);
+            style.backgroundColor = resources.getColor(R.color.analog_background);
+            style.ambientBackgroundColor = resources.getColor(R.color.analog_ambient_background);
+            style.innerRadius = resources.getDimension(R.dimen.inner_circle_radius);
+            style.handWidth = resources.getDimension(R.dimen.analog_hand_stroke);
+            style.secondHandWidth = resources.getDimension(R.dimen.second_hand_stroke);
+            style.minuteDelta = resources.getDimension(R.dimen.min_hand_delta);
+            style.hourDelta = resources.getDimension(R.dimen.hr_hand_delta);
+            mRenderer = new WatchFaceRenderer(style, AndroidFaceImage.FACTORY);
+            mScheduler = new FrameScheduler(resources.getInteger(R.integer.smooth_second_hand_fps),
+                    System.currentTimeMillis());
+
+            mIconCache = new IconCache(resources);
+            // renders the backgrounds and writes the weather store
+            mRenderExecutor = Executors.newSingleThreadExecutor();
+            // decode the icons before the first background needs them
+            mRenderExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mIconCache.preload();
+                }
+            });
+            // both render on mRenderExecutor, so they can share the markers
+            MarkerGeometry markers = new MarkerGeometry();
+            mInteractiveBackground = new AsyncBackground(new WatchBackground(
+                    newBackgroundStyle(resources, false), mIconCache, markers,
+                    AndroidFaceImage.FACTORY), mRenderExecutor, this);
+            mAmbientBackground = new AsyncBackground(new WatchBackground(
+                    newBackgroundStyle(resources, true), mIconCache, markers,
+                    AndroidFaceImage.FACTORY), mRenderExecutor, this);
+            mWatchFace = new WatchFace(style, mRenderer, mInteractiveBackground, mAmbientBackground);
 
             mTime = new Time();
-            mWeatherData = loadWeatherData();
+            mWeatherStore = new WeatherStore(new File(getFilesDir(), WEATHER_STORE_FILE),
+                    mRenderExecutor);
+            if (!mWeatherStore.load())
+                migratePreferences(mWeatherStore);
+            mInteractiveBackground.setWeather(mWeatherStore.getWeatherId(), mWeatherStore.getHigh(),
+                    mWeatherStore.getLow(), mWeatherStore.isMetric());
+            mAmbientBackground.setWeather(mWeatherStore.getWeatherId(), mWeatherStore.getHigh(),
+                    mWeatherStore.getLow(), mWeatherStore.isMetric());
+            mForecast = mWeatherStore.getForecast();
             mGeneratorExecutor = new ScheduledThreadPoolExecutor(1);
         }
 
+        private WatchBackground.Style newBackgroundStyle(Resources resources, boolean ambient) {
+            WatchBackground.Style style = new WatchBackground.Style();
+            style.ambient = ambient;
+            style.backgroundColor = resources.getColor(
+                    ambient ? R.color.analog_ambient_background : R.color.analog_background);
+            style.markerColor = resources.getColor(
+                    ambient ? R.color.marker_ambient_color : R.color.marker_color);
+            style.iconColor = resources.getColor(R.color.marker_color);
+            style.handColor = resources.getColor(R.color.analog_hands);
+            style.textColor = Color.WHITE;
+            // until onApplyWindowInsets knows the shape
+            style.textSize = resources.getDimension(R.dimen.text_size);
+            style.textSpacing = resources.getDimension(R.dimen.text_size);
+            style.xOffset = resources.getDimension(R.dimen.x_offset);
+            style.ringStroke = resources.getDimension(R.dimen.second_hand_stroke);
+            style.heavyMarkStroke = resources.getDimension(R.dimen.heavy_mark_stroke);
+            style.thinMarkStroke = resources.getDimension(R.dimen.thin_mark_stroke);
+            style.logoOffsetX = resources.getDimension(R.dimen.watch_icon_offsetX);
+            style.logoOffsetY = resources.getDimension(R.dimen.watch_icon_offsetY);
+            style.weatherIconOffsetX = resources.getDimension(R.dimen.weather_icon_offSetX);
+            style.weatherIconOffsetY = resources.getDimension(R.dimen.weather_icon_offSetY);
+            style.weatherIconRadius = resources.getDimension(R.dimen.weather_icon_radius);
+            style.degree = resources.getString(R.string.format_temperature);
+            return style;
+        }
+
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            stopWeatherRequests();
+            mGeneratorExecutor.shutdownNow();
+            mRenderer.invalidateSprites();
+            mInteractiveBackground.recycle();
+            mAmbientBackground.recycle();
+            // the recycling queued above and any pending store write still run
+            mRenderExecutor.shutdown();
             super.onDestroy();
         }
 
@@ -313,12 +457,29 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            // the ambient background keeps its own images; on a low-bit display they are of half
+            // the depth, as many bits as it shows, and drawn without anti-aliasing
+            mAmbientBackground.setAntiAlias(!mLowBitAmbient);
+            mAmbientBackground.setImageFactory(mLowBitAmbient
+                    ? AndroidFaceImage.RGB_565_FACTORY : AndroidFaceImage.FACTORY);
+            // moved round by the minute, without rendering anything again
+            mWatchFace.setBurnInProtection(
+                    properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false));
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
-            invalidate();
+            long now = System.currentTimeMillis();
+            // move on to the next day of the forecast after midnight
+            if (mForecast != null) {
+                mTime.set(now);
+                if (Time.getJulianDay(now, mTime.gmtoff) != mWeatherJulianDay)
+                    showForecastDay();
+            }
+            // in interactive mode the timer has usually drawn this minute already
+            if (mScheduler.onWakeup(now))
+                invalidate();
         }
 
         @Override
@@ -327,8 +488,7 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
                 if (mLowBitAmbient) {
-                    mHandPaint.setAntiAlias(!inAmbientMode);
-                    mTextPaint.setAntiAlias(!inAmbientMode);
+                    mRenderer.setAntiAlias(!inAmbientMode);
                 }
                 invalidate();
             }
@@ -337,316 +497,23 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
             // whether we're in ambient mode), so we may need to start or stop the timer.
             updateTimer();
         }
-        private void drawRoundMarkers(Canvas canvas, float centerX, float centerY, float radius){
-            float radius2 = radius - 15;
-            mHandPaint.setStyle(Paint.Style.STROKE);
-            mHandPaint.setStrokeWidth(mSecondHandleWidth);
-            canvas.drawCircle(centerX, centerY, radius, mHandPaint);
-            canvas.drawCircle(centerX, centerY, radius2, mHandPaint);
-            // draw marks
-            for (int i = 0; i < 12; i++) {
-                float rot = ((float) i) / 6f * (float) Math.PI;
-                float x1 = (float) Math.sin(rot) * radius + centerX;
-                float y1 = (float) -Math.cos(rot) * radius + centerY;
-                float x2 = (float) Math.sin(rot) * radius2 + centerX;
-                float y2 = (float) -Math.cos(rot) * radius2 + centerY;
-                if (i % 3 == 0) {
-                    mHandPaint.setStrokeWidth(mHeavyMarkStroke);
-                } else {
-                    mHandPaint.setStrokeWidth(mThinMarkStroke);
-
-                }
-                canvas.drawLine(x1, y1, x2, y2, mHandPaint);
-            }
-            mHandPaint.setStyle(Paint.Style.FILL);
-            mHandPaint.setStrokeWidth(mHandleWidth);
-            mHandPaint.setColor(mHandleColor);
-        }
-        private void drawSquareMarkers(Canvas canvas, float centerX, float centerY, float width, float height) {
-            float radius = (float) Math.sqrt(Math.pow(width / 2, 2) + Math.pow(height / 2, 2));
-            mHandPaint.setStyle(Paint.Style.STROKE);
-            mHandPaint.setStrokeWidth(mSecondHandleWidth);
-//                canvas.drawCircle(centerX, centerY, radius, mHandPaint);
-//                canvas.drawCircle(centerX, centerY, radius2, mHandPaint);
-            // draw marks
-            float dx = 10;
-            float dy = 10;
-            if (!mAmbient) {
-                mHandPaint.setStrokeWidth(mThinMarkStroke);
-                for (int i = 0; i < 60; i++) {
-                    float rot = ((float) i) / 30f * (float) Math.PI;
-                    float x1 = (float) Math.sin(rot) * radius + centerX;
-                    float y1 = (float) -Math.cos(rot) * radius + centerY;
-                    if (i % 5 == 0) {
-                        mHandPaint.setStrokeWidth(mHeavyMarkStroke);
-                    } else {
-                        mHandPaint.setStrokeWidth(mThinMarkStroke);
-                    }
-                    canvas.drawLine(centerX, centerY, x1, y1, mHandPaint);
-                }
-                // draw background
-                canvas.drawRect(dx, dx, width - dx, height - dy, mBackgroundPaint);
-            }
-            mHandPaint.setStrokeWidth(mHeavyMarkStroke);
-            for (int i = 0; i < 12; i++) {
-                float rot = ((float) i) / 6f * (float) Math.PI;
-                float x1 = (float) Math.sin(rot) * radius + centerX;
-                float y1 = (float) -Math.cos(rot) * radius + centerY;
-                canvas.drawLine(centerX, centerY, x1, y1, mHandPaint);
-            }
-            // draw background
-            dx = 20;
-            dy = 20;
-            canvas.drawRect(dx, dx, width - dx, height - dy, mBackgroundPaint);
-            mHandPaint.setStrokeWidth(mHandleWidth);
-            mHandPaint.setColor(mHandleColor);
-        }
-        private Bitmap toGrayscale(Bitmap bmpOriginal){
-            int width, height;
-            height = bmpOriginal.getHeight();
-            width = bmpOriginal.getWidth();
-
-            Bitmap bmpGrayscale = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-            Canvas c = new Canvas(bmpGrayscale);
-            Paint paint = new Paint();
-            ColorMatrix cm = new ColorMatrix();
-            cm.setSaturation(0);
-            ColorMatrixColorFilter f = new ColorMatrixColorFilter(cm);
-            paint.setColorFilter(f);
-            c.drawBitmap(bmpOriginal, 0, 0, paint);
-            return bmpGrayscale;
-        }
-        private void drawBorderText(Canvas canvas, String text, float x, float y){
-            int color = mTextPaint.getColor();
-            canvas.drawText( text, x-1, y-1, mTextPaint);
-            canvas.drawText( text, x-1, y+1, mTextPaint);
-            canvas.drawText(text, x + 1, y + 1, mTextPaint);
-            canvas.drawText(text, x + 1, y - 1, mTextPaint);
-            mTextPaint.setColor(mBackgroundColor);
-            canvas.drawText(text, x, y, mTextPaint);
-            mTextPaint.setColor(color);
-        }
-
-        private Bitmap getAmbientWatchBitmap(int width, int height){
-            Bitmap resultBmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(resultBmp);
-
-            Resources resources = MyWatchFaceService.this.getResources();
-            mBackgroundColor = resources.getColor( R.color.analog_ambient_background);
-            mBackgroundPaint.setColor(mBackgroundColor);
-            canvas.drawRect(0, 0, canvas.getWidth(), canvas.getHeight(), mBackgroundPaint);
-            float centerX = width / 2f;
-            float centerY = height / 2f;
-            float secLength = centerX - 20;
-            mHandPaint.setColor(mMarkerAmbientColor);
-            if ( mIsRound) {
-                drawRoundMarkers(canvas, centerX, centerY, secLength);
-            } else {
-                drawSquareMarkers(canvas, centerX, centerY, width, height);
-            }
-            // draw logo
-            Drawable drawable = resources.getDrawable(R.drawable.ic_watch_logo);
-            if ( drawable instanceof BitmapDrawable) {
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
-                Bitmap bitmap1 = bitmapDrawable.getBitmap();
-                bitmap1 = toGrayscale(bitmap1);
-                canvas.drawBitmap(bitmap1,
-                        centerX + resources.getDimension(R.dimen.watch_icon_offsetX),
-                        centerY + resources.getDimension(R.dimen.watch_icon_offsetY), null);
-            }
-
-            // draw weather icon
-            int iconResourceId = Utility.getAmbientIconResourceForWeatherCondition(mWeatherData.weather_id);
-            if ( iconResourceId != -1) {
-                float high_temp_width = mTextPaint.measureText(String.valueOf(mWeatherData.high));
-                float low_temp_offset =
-                        ( high_temp_width - mTextPaint.measureText(String.valueOf(mWeatherData.low))) / 2;
-                mYOffset = centerY;
-                String mDegree = mTempUnit + (mWeatherData.isMetric? "C": "F");
-                // draw temperature
-                drawBorderText(canvas,
-                        String.valueOf(mWeatherData.high),
-                        mXOffset,
-                        mYOffset - mHeavyMarkStroke);
-                drawBorderText(canvas,
-                        String.valueOf(mWeatherData.low),
-                        mXOffset + low_temp_offset,
-                        mYOffset + mTextSpacingHeight);
-                drawBorderText(canvas,
-                        mDegree,
-                        mXOffset + high_temp_width + 5,
-                        mYOffset + mTextSpacingHeight / 2);
-                mHandPaint.setStrokeWidth(2);
-                float dl = high_temp_width;
-                canvas.drawLine(mXOffset, mYOffset, mXOffset + dl, mYOffset, mHandPaint);
-
-
-                float wx = resources.getDimension(R.dimen.weather_icon_offSetX);
-                float wy = resources.getDimension(R.dimen.weather_icon_offSetY);
-                float wr = resources.getDimension(R.dimen.weather_icon_radius);
-
-                mHandPaint.setColor(mBackgroundColor);
-                mHandPaint.setStyle(Paint.Style.FILL);
-                canvas.drawCircle(centerX + wx + wr, centerY, wr, mHandPaint);
-
-                mHandPaint.setColor(mMarkerColor);
-                mHandPaint.setStyle(Paint.Style.STROKE);
-                canvas.drawCircle(centerX + wx + wr, centerY, wr, mHandPaint);
-                mHandPaint.setColor(mHandleColor);
-                drawable = resources.getDrawable( iconResourceId );
-                if (drawable instanceof BitmapDrawable) {
-                    BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
-                    Bitmap bitmap1 = bitmapDrawable.getBitmap();
-                    canvas.drawBitmap(bitmap1, centerX + wx, centerY - wy, null);
-                }
-            }
-            return resultBmp;
-        }
-        private Bitmap getWatchBitmap(int width, int height){
-            Bitmap resultBmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(resultBmp);
-
-            Resources resources = MyWatchFaceService.this.getResources();
-            mBackgroundColor = resources.getColor( R.color.analog_background);
-            mBackgroundPaint.setColor(mBackgroundColor);
-            canvas.drawRect(0, 0, canvas.getWidth(), canvas.getHeight(), mBackgroundPaint);
-            float centerX = width / 2f;
-            float centerY = height / 2f;
-            float secLength = centerX - 20;
-            mHandPaint.setColor(mMarkerColor);
-            if ( mIsRound) {
-                drawRoundMarkers(canvas, centerX, centerY, secLength);
-            } else {
-                drawSquareMarkers(canvas, centerX, centerY, width, height);
-            }
-            // draw logo
-            Drawable drawable = resources.getDrawable(R.drawable.ic_watch_logo);
-            if ( drawable instanceof BitmapDrawable) {
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
-                Bitmap bitmap1 = bitmapDrawable.getBitmap();
-                canvas.drawBitmap(bitmap1,
-                        centerX + resources.getDimension(R.dimen.watch_icon_offsetX),
-                        centerY + resources.getDimension(R.dimen.watch_icon_offsetY), null);
-            }
-
-            // draw weather icon
-            int iconResourceId = Utility.getIconResourceForWeatherCondition(mWeatherData.weather_id);
-            if ( iconResourceId != -1) {
-                float high_temp_width = mTextPaint.measureText(String.valueOf(mWeatherData.high));
-                float low_temp_offset =
-                        ( high_temp_width - mTextPaint.measureText(String.valueOf(mWeatherData.low))) / 2;
-                mYOffset = centerY;
-                String mDegree = mTempUnit + (mWeatherData.isMetric? "C": "F");
-                // draw temperature
-                canvas.drawText(
-                        String.valueOf(mWeatherData.high),
-                        mXOffset,
-                        mYOffset - mHeavyMarkStroke,
-                        mTextPaint);
-                canvas.drawText(
-                        String.valueOf(mWeatherData.low),
-                        mXOffset + low_temp_offset,
-                        mYOffset + mTextSpacingHeight,
-                        mTextPaint);
-
-                canvas.drawText(
-                        mDegree,
-                        mXOffset + high_temp_width + 5,
-                        mYOffset + mTextSpacingHeight / 2,
-                        mTextPaint);
-
-                mHandPaint.setStrokeWidth(2);
-                float dl = high_temp_width;
-                canvas.drawLine(mXOffset, mYOffset, mXOffset + dl, mYOffset, mHandPaint);
-
-                mHandPaint.setColor(mMarkerColor);
-                mHandPaint.setStyle(Paint.Style.FILL);
-
-                float wx = resources.getDimension(R.dimen.weather_icon_offSetX);
-                float wy = resources.getDimension(R.dimen.weather_icon_offSetY);
-                float wr = resources.getDimension(R.dimen.weather_icon_radius);
-                canvas.drawCircle(centerX + wx + wr, centerY, wr, mHandPaint);
-                mHandPaint.setColor(mHandleColor);
-                drawable = resources.getDrawable( iconResourceId );
-                if (drawable instanceof BitmapDrawable) {
-                    BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
-                    Bitmap bitmap1 = bitmapDrawable.getBitmap();
-                    canvas.drawBitmap(bitmap1, centerX + wx, centerY - wy, null);
-                }
-            }
-            return resultBmp;
-        }
-
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            mTime.setToNow();
+            long now = System.currentTimeMillis();
+            mTime.set(now);
             int width = bounds.width();
             int height = bounds.height();
-
-            if ( mAmbient) {
-                if ( mAmbientWatchBitmap == null)
-                    mAmbientWatchBitmap = getAmbientWatchBitmap(width, height);
-                canvas.drawBitmap(mAmbientWatchBitmap, 0, 0, null );
-            } else {
-                if ( mtWatchBitmap == null)
-                    mtWatchBitmap = getWatchBitmap(width, height);
-                canvas.drawBitmap(mtWatchBitmap, 0, 0, null );
-            }
-            float centerX = width / 2f;
-            float centerY = height / 2f;
-            float secRot = mTime.second / 30f * (float) Math.PI;
-            int minutes = mTime.minute;
-            float minRotDegree = minutes * 6f;
-            float hrRotDegree = mTime.hour * 30f + minutes / 2f;
-
-            float secLength = centerX - 20;
-            float minLength = centerX - 40;
-            float hrLength = centerX - 80;
-
-            mHandPaint.setStrokeWidth(mHandleWidth);
-
-            // draw minute hand and hour hand
-            if ( mAmbient) {
-                mHandPaint.setStyle(Paint.Style.STROKE);
-            } else {
-                mHandPaint.setStyle(Paint.Style.FILL);
-            }
-            canvas.save();
-            canvas.rotate(minRotDegree, centerX, centerY);
-            canvas.drawRect(centerX - mInnerRadius, centerY - minLength, centerX + 2 * mInnerRadius, centerY - mMinDelta, mHandPaint);
-            if ( !mAmbient) { // draw divider shadow
-                mHandPaint.setStyle(Paint.Style.STROKE);
-                mHandPaint.setColor(mBackgroundColor);
-                canvas.drawRect(centerX - mInnerRadius, centerY - minLength, centerX + 2 * mInnerRadius, centerY - mMinDelta, mHandPaint);
-                mHandPaint.setColor(mHandleColor);
-                mHandPaint.setStyle(Paint.Style.FILL);
-            }
-            canvas.rotate(hrRotDegree - minRotDegree, centerX, centerY);
-            canvas.drawRect(centerX - mInnerRadius, centerY - hrLength, centerX + 2 * mInnerRadius, centerY - mHrDelta, mHandPaint);
-            canvas.drawRect(centerX - mInnerRadius, centerY-hrLength, centerX + 2 * mInnerRadius, centerY - mHrDelta, mHandPaint);
-            if ( !mAmbient) { // draw divider shadow
-                mHandPaint.setStyle(Paint.Style.STROKE);
-                mHandPaint.setColor(mBackgroundColor);
-                canvas.drawRect(centerX - mInnerRadius, centerY - hrLength, centerX + 2 * mInnerRadius, centerY - mHrDelta, mHandPaint);
-                mHandPaint.setColor(mHandleColor);
-            }
-            canvas.restore();
-
-            canvas.drawCircle(centerX, centerY, mInnerRadius * 2, mHandPaint);
-            canvas.drawCircle(centerX, centerY, mInnerRadius, mBackgroundPaint);
-
-            if (!mAmbient) {
-                // draw sec hand
-                float secX = (float) Math.sin(secRot) * secLength;
-                float secY = (float) -Math.cos(secRot) * secLength;
-                mHandPaint.setColor(mSecHandleColor);
-                mHandPaint.setStrokeWidth(mSecondHandleWidth);
-                canvas.drawLine(centerX, centerY, centerX + secX, centerY + secY, mHandPaint);
-                mHandPaint.setStyle(Paint.Style.FILL);
-                canvas.drawCircle(centerY, centerY, mInnerRadius*2, mHandPaint);
-                mHandPaint.setColor(mHandleColor);
-                mHandPaint.setStrokeWidth(mHandleWidth);
-            }
+            mWatchFace.setBounds(width, height);
+            // both modes, so the other one is ready before the switch
+            mInteractiveBackground.setBounds(width, height, mIsRound);
+            mAmbientBackground.setBounds(width, height, mIsRound);
+
+            // until the first background is rendered the face shows its color, and we're told
+            // when it's ready
+            mFaceCanvas.setCanvas(canvas);
+            mWatchFace.drawFrame(mFaceCanvas, mTime.hour, mTime.minute, mTime.second,
+                    mScheduler.getSecondHandMillis(now), mAmbient);
+            mScheduler.onFrameDrawn(now);
         }
 
         @Override
@@ -661,18 +528,16 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
                 mTime.clear(TimeZone.getDefault().getID());
                 mTime.setToNow();
                 invalidate();
-                if ( !mWeatherUpdateFlag)
-                   mDataItemGeneratorFuture = mGeneratorExecutor.scheduleWithFixedDelay(
-                        new WeatherMessageGenerator(), 1, 10, TimeUnit.SECONDS);
-
+                // weather is requested from onConnected if ours is stale
             } else {
+                Log.d(TAG, "Frames: " + mScheduler.getStats(System.currentTimeMillis()));
                 unregisterReceiver();
+                stopWeatherRequests();
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                    mGoogleApiClient.disconnect();
                     Wearable.DataApi.removeListener(mGoogleApiClient, this);
+                    Wearable.MessageApi.removeListener(mGoogleApiClient, this);
+                    mGoogleApiClient.disconnect();
                 }
-                if ( mDataItemGeneratorFuture != null)
-                   mDataItemGeneratorFuture.cancel(true);
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -702,6 +567,7 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
                 * or stops it if it shouldn't be running but currently is.
                 */
         private void updateTimer() {
+            mScheduler.setMode(isVisible(), isInAmbientMode(), System.currentTimeMillis());
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
             if (shouldTimerBeRunning()) {
                 mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
@@ -713,29 +579,42 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
                 * only run when we're visible and in interactive mode.
                 */
         private boolean shouldTimerBeRunning() {
-            return isVisible() && !isInAmbientMode();
+            return mScheduler.isTimerNeeded();
         }
 
         /**
                 * Handle updating the time periodically in interactive mode.
                 */
         private void handleUpdateTimeMessage() {
-            invalidate();
+            long timeMs = System.currentTimeMillis();
+            // a wakeup early for its second, or one already drawn, only reschedules
+            if (mScheduler.onWakeup(timeMs))
+                invalidate();
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
+                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME,
+                        mScheduler.getDelayMs(timeMs));
             }
         }
 
         /**
-                *  request for initial data on starting up
+                *  one weather request, rescheduling itself with a longer delay until stopped
                 */
         private class WeatherMessageGenerator implements Runnable {
+            private final int mGeneration;
+
+            WeatherMessageGenerator(int generation) {
+                mGeneration = generation;
+            }
+
             @Override
             public void run() {
                 if (!mGoogleApiClient.isConnected()) {
+                    // onConnected starts over
+                    synchronized (mRequestLock) {
+                        if (mGeneration == mRequestGeneration) {
+                            stopWeatherRequests();
+                        }
+                    }
                     return;
                 }
                 NodeApi.GetConnectedNodesResult nodes =
@@ -744,6 +623,17 @@ public class MyWatchFaceService extends CanvasWatchFaceService {
                     Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(),
                             REQUEST_WEATHER_PATH, null);
                 }
+                int count = sWeatherRequestCount.incrementAndGet();
+                synchronized (mRequestLock) {
+                    // stopped, or stopped and started again while this one was waiting
+                    if (mGeneration != mRequestGeneration)
+                        return;
+                    Log.d(TAG, "Weather request " + count + " sent to " + nodes.getNodes().size()
+                            + " nodes, next in " + mRequestBackoffMs + " ms");
+                    mWeatherRequestFuture = mGeneratorExecutor.schedule(
+                            this, mRequestBackoffMs, TimeUnit.MILLISECONDS);
+                    mRequestBackoffMs = Math.min(mRequestBackoffMs * 2, REQUEST_MAX_BACKOFF_MS);
+                }
             }
         }
     }
@@ -0,0 +1,536 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * The background of the watch face in one mode, composited from layers.
+ *
+ * The static layer (fill, markers and logo) is rendered into its own image once per surface
+ * size, the markers from a {@link MarkerGeometry} the modes share.  The weather layers,
+ * temperatures and icon, are drawn straight into the composite on top of a copy of the static
+ * layer.  When the weather changes only the layers that show something new are dirty, and only
+ * the region each covers, before and after, is composited again; the markers are left alone.
+ *
+ * The composite is a {@link Target}; {@link #getImage()} keeps one up to date, and
+ * {@link AsyncBackground} keeps two on a worker thread.
+ */
+class WatchBackground implements WatchFace.Background {
+    // room round the weather for strokes, anti-aliasing and descenders
+    private static final float WEATHER_PADDING = 4;
+
+    /**
+     * Colors, dimensions and text of one mode, read from resources by the engine.
+     */
+    static class Style {
+        boolean ambient;
+        int backgroundColor;
+        int markerColor;
+        // disc behind the weather icon, a ring round it in ambient mode
+        int iconColor;
+        int handColor;
+        int textColor;
+        float textSize;
+        // distance from the high to the low temperature
+        float textSpacing;
+        // left edge of the temperatures
+        float xOffset;
+        float ringStroke;
+        float heavyMarkStroke;
+        float thinMarkStroke;
+        float logoOffsetX;
+        float logoOffsetY;
+        float weatherIconOffsetX;
+        float weatherIconOffsetY;
+        float weatherIconRadius;
+        // the degree sign the unit letter follows
+        String degree;
+    }
+
+    /**
+     * Source of the icons drawn on the background.
+     */
+    interface Icons {
+        /**
+         * @return the logo, or null.
+         */
+        FaceImage getLogo(boolean grayscale);
+
+        /**
+         * @return the icon for an OpenWeatherMap condition, from the ambient set if asked for,
+         * or null if there is none.
+         */
+        FaceImage getWeatherIcon(int weatherId, boolean ambient);
+    }
+
+    private final Style mStyle;
+    private final Icons mIcons;
+    private final MarkerGeometry mMarkers;
+    private FaceImage.Factory mImageFactory;
+
+    private final FacePaint mFillPaint;
+    private final FacePaint mRingPaint;
+    private final FacePaint mHeavyMarkPaint;
+    private final FacePaint mThinMarkPaint;
+    private final FacePaint mTextPaint;
+    // ambient text is drawn as an outline in the text color around glyphs in the background color
+    private final FacePaint mTextOutlinePaint;
+    private final FacePaint mTextFillPaint;
+    private final FacePaint mDividerPaint;
+    private final FacePaint mIconBackgroundPaint;
+    private final FacePaint mIconRingPaint;
+
+    private int mWidth;
+    private int mHeight;
+    private boolean mRound;
+    private FaceImage mStaticLayer;
+    private boolean mStaticDirty = true;
+    // bumped by every change that needs the whole composite drawn again
+    private int mLayoutVersion;
+    private final Target mTarget = new Target();
+
+    private boolean mHasWeather;
+    private int mWeatherId;
+    private String mHighText;
+    private String mLowText;
+    private String mUnitText;
+    private final float[] mNewBounds = new float[4];
+
+    private int mStaticRenders;
+    private int mWeatherRenders;
+    private long mLastCompositedArea;
+
+    /**
+     * An image the background is composited into, with the weather it shows and where, so it
+     * can be brought up to date by compositing only what changed since it was last rendered.  A
+     * background can keep several, such as the two buffers of {@link AsyncBackground}.
+     */
+    static class Target {
+        private FaceImage mImage;
+        // what mImage came from, replaced when the background's factory changes
+        private FaceImage.Factory mImageFactory;
+        // mLayoutVersion of the background when the image was last composited, -1 if never
+        private int mLayoutVersion = -1;
+        private boolean mHasWeather;
+        private int mWeatherId;
+        private String mHighText;
+        private String mLowText;
+        private String mUnitText;
+        // regions the weather layers cover in the image, left, top, right, bottom; empty if none
+        private final float[] mTemperatureBounds = new float[4];
+        private final float[] mIconBounds = new float[4];
+
+        FaceImage getImage() {
+            return mImage;
+        }
+
+        void recycle() {
+            if (mImage != null) {
+                mImage.recycle();
+                mImage = null;
+            }
+            mLayoutVersion = -1;
+        }
+    }
+
+    WatchBackground(Style style, Icons icons, FaceImage.Factory imageFactory) {
+        this(style, icons, new MarkerGeometry(), imageFactory);
+    }
+
+    /**
+     * @param markers shared with the backgrounds of the other modes, which render on the same
+     *                thread.
+     */
+    WatchBackground(Style style, Icons icons, MarkerGeometry markers,
+                    FaceImage.Factory imageFactory) {
+        mStyle = style;
+        mIcons = icons;
+        mMarkers = markers;
+        mImageFactory = imageFactory;
+        mFillPaint = new FacePaint(style.backgroundColor, FacePaint.STYLE_FILL, 0);
+        mRingPaint = markerPaint(style.markerColor, style.ringStroke);
+        mHeavyMarkPaint = markerPaint(style.markerColor, style.heavyMarkStroke);
+        mThinMarkPaint = markerPaint(style.markerColor, style.thinMarkStroke);
+        mTextPaint = textPaint(style.textColor, FacePaint.STYLE_FILL);
+        mTextOutlinePaint = textPaint(style.textColor, FacePaint.STYLE_STROKE);
+        mTextFillPaint = textPaint(style.backgroundColor, FacePaint.STYLE_FILL);
+        mDividerPaint = markerPaint(style.handColor, 2);
+        mIconBackgroundPaint = new FacePaint(style.ambient ? style.backgroundColor : style.iconColor,
+                FacePaint.STYLE_FILL, 0);
+        mIconBackgroundPaint.setAntiAlias(true);
+        mIconRingPaint = markerPaint(style.iconColor, 2);
+    }
+
+    private static FacePaint markerPaint(int color, float strokeWidth) {
+        FacePaint paint = new FacePaint(color, FacePaint.STYLE_STROKE, strokeWidth);
+        paint.setAntiAlias(true);
+        paint.setRoundCap(true);
+        return paint;
+    }
+
+    private FacePaint textPaint(int color, int style) {
+        FacePaint paint = new FacePaint(color, style, 2);
+        paint.setAntiAlias(true);
+        paint.setBold(true);
+        paint.setTextSize(mStyle.textSize);
+        return paint;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getStaticRenders() {
+        return mStaticRenders;
+    }
+
+    int getWeatherRenders() {
+        return mWeatherRenders;
+    }
+
+    /**
+     * @return how many pixels the last update of a composite drew.
+     */
+    long getLastCompositedArea() {
+        return mLastCompositedArea;
+    }
+
+    void setBounds(int width, int height, boolean round) {
+        if (width == mWidth && height == mHeight && round == mRound) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        mRound = round;
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+        mStaticDirty = true;
+        mLayoutVersion++;
+    }
+
+    /**
+     * Lay the temperatures out anew; every composite is drawn again, the static layer is kept.
+     */
+    void setTextLayout(float xOffset, float textSize, float textSpacing) {
+        mStyle.xOffset = xOffset;
+        mStyle.textSize = textSize;
+        mStyle.textSpacing = textSpacing;
+        mTextPaint.setTextSize(textSize);
+        mTextOutlinePaint.setTextSize(textSize);
+        mTextFillPaint.setTextSize(textSize);
+        mLayoutVersion++;
+    }
+
+    /**
+     * Anti-aliasing is turned off in ambient mode on low-bit displays.
+     */
+    void setAntiAlias(boolean antiAlias) {
+        if (mTextPaint.isAntiAlias() == antiAlias) {
+            return;
+        }
+        mRingPaint.setAntiAlias(antiAlias);
+        mHeavyMarkPaint.setAntiAlias(antiAlias);
+        mThinMarkPaint.setAntiAlias(antiAlias);
+        mTextPaint.setAntiAlias(antiAlias);
+        mTextOutlinePaint.setAntiAlias(antiAlias);
+        mTextFillPaint.setAntiAlias(antiAlias);
+        mDividerPaint.setAntiAlias(antiAlias);
+        mIconBackgroundPaint.setAntiAlias(antiAlias);
+        mIconRingPaint.setAntiAlias(antiAlias);
+        mStaticDirty = true;
+        mLayoutVersion++;
+    }
+
+    /**
+     * Render into images from the given factory from now on, such as ones of a reduced depth on
+     * a low-bit display.  The static layer and every target are rendered again, into new images.
+     */
+    void setImageFactory(FaceImage.Factory imageFactory) {
+        if (imageFactory == mImageFactory) {
+            return;
+        }
+        mImageFactory = imageFactory;
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+        mStaticDirty = true;
+        mLayoutVersion++;
+    }
+
+    /**
+     * Show the given weather; temperatures in whole degrees.  Targets showing something else
+     * are dirty, in the layers that differ.
+     */
+    void setWeather(int weatherId, int high, int low, boolean isMetric) {
+        mHasWeather = true;
+        mWeatherId = weatherId;
+        mHighText = String.valueOf(high);
+        mLowText = String.valueOf(low);
+        mUnitText = mStyle.degree + (isMetric ? "C" : "F");
+    }
+
+    /**
+     * Free the static layer and the image of {@link #getImage()}; they are rendered again when
+     * next asked for.  Other targets are recycled by their owners.
+     */
+    void recycle() {
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+        mStaticDirty = true;
+        mTarget.recycle();
+    }
+
+    /**
+     * @return the background, brought up to date by rendering only the layers that changed.
+     */
+    FaceImage getImage() {
+        render(mTarget);
+        return mTarget.getImage();
+    }
+
+    /**
+     * Bring the background up to date, as {@link #getImage()}, and draw it.
+     *
+     * @return false until the background has a size.
+     */
+    @Override
+    public boolean draw(FaceCanvas canvas) {
+        if (mWidth == 0 || mHeight == 0) {
+            return false;
+        }
+        canvas.drawImage(getImage(), 0, 0, null);
+        return true;
+    }
+
+    /**
+     * @return whether the target shows the background as it is now.
+     */
+    boolean isCurrent(Target target) {
+        return target.mImage != null && target.mLayoutVersion == mLayoutVersion
+                && target.mHasWeather == mHasWeather && target.mWeatherId == mWeatherId
+                && equal(target.mHighText, mHighText) && equal(target.mLowText, mLowText)
+                && equal(target.mUnitText, mUnitText);
+    }
+
+    /**
+     * Bring the target up to date, reusing its image while the size stays the same.  Only the
+     * weather regions that differ from what the target shows are composited again.
+     */
+    void render(Target target) {
+        if (isCurrent(target)) {
+            return;
+        }
+        if (mStaticLayer == null) {
+            mStaticLayer = mImageFactory.createImage(mWidth, mHeight);
+            mStaticDirty = true;
+        }
+        if (mStaticDirty) {
+            drawStatic(mStaticLayer.getCanvas());
+            mStaticRenders++;
+            mStaticDirty = false;
+        }
+        FaceImage image = target.mImage;
+        if (image != null && (image.getWidth() != mWidth || image.getHeight() != mHeight
+                || target.mImageFactory != mImageFactory)) {
+            target.recycle();
+            image = null;
+        }
+        if (image == null) {
+            image = mImageFactory.createImage(mWidth, mHeight);
+            target.mImage = image;
+            target.mImageFactory = mImageFactory;
+        }
+
+        FaceCanvas canvas = image.getCanvas();
+        FaceImage icon = getWeatherIcon();
+        if (target.mLayoutVersion != mLayoutVersion) {
+            canvas.drawImage(mStaticLayer, 0, 0, null);
+            measureTemperatures(canvas, icon, target.mTemperatureBounds);
+            measureIcon(icon, target.mIconBounds);
+            drawWeather(canvas, icon);
+            mLastCompositedArea = (long) mWidth * mHeight;
+        } else {
+            boolean iconDirty = target.mHasWeather != mHasWeather || target.mWeatherId != mWeatherId;
+            boolean temperaturesDirty = target.mHasWeather != mHasWeather
+                    || !equal(target.mHighText, mHighText) || !equal(target.mLowText, mLowText)
+                    || !equal(target.mUnitText, mUnitText);
+            // the temperatures are only shown next to an icon
+            measureIcon(icon, mNewBounds);
+            if (isEmpty(mNewBounds) != isEmpty(target.mIconBounds)) {
+                temperaturesDirty = true;
+            }
+            mLastCompositedArea = 0;
+            if (iconDirty) {
+                mLastCompositedArea += composite(canvas, icon, target.mIconBounds, mNewBounds);
+            }
+            if (temperaturesDirty) {
+                measureTemperatures(canvas, icon, mNewBounds);
+                mLastCompositedArea += composite(canvas, icon, target.mTemperatureBounds, mNewBounds);
+            }
+        }
+        mWeatherRenders++;
+        target.mLayoutVersion = mLayoutVersion;
+        target.mHasWeather = mHasWeather;
+        target.mWeatherId = mWeatherId;
+        target.mHighText = mHighText;
+        target.mLowText = mLowText;
+        target.mUnitText = mUnitText;
+    }
+
+    /**
+     * Composite the region a layer covered and now covers again: the static layer under the
+     * weather, clipped to it.
+     *
+     * @param bounds where the layer was, updated to where it is now.
+     * @return the number of pixels drawn.
+     */
+    private long composite(FaceCanvas canvas, FaceImage icon, float[] bounds, float[] newBounds) {
+        float left = Math.max(Math.min(bounds[0], newBounds[0]), 0);
+        float top = Math.max(Math.min(bounds[1], newBounds[1]), 0);
+        float right = Math.min(Math.max(bounds[2], newBounds[2]), mWidth);
+        float bottom = Math.min(Math.max(bounds[3], newBounds[3]), mHeight);
+        System.arraycopy(newBounds, 0, bounds, 0, 4);
+        if (left >= right || top >= bottom) {
+            return 0;
+        }
+        canvas.save();
+        canvas.clipRect(left, top, right, bottom);
+        canvas.drawImage(mStaticLayer, 0, 0, null);
+        // both layers, in case they overlap
+        drawWeather(canvas, icon);
+        canvas.restore();
+        return (long) Math.ceil(right - left) * (long) Math.ceil(bottom - top);
+    }
+
+    private FaceImage getWeatherIcon() {
+        return mHasWeather ? mIcons.getWeatherIcon(mWeatherId, mStyle.ambient) : null;
+    }
+
+    private void drawStatic(FaceCanvas canvas) {
+        canvas.drawRect(0, 0, mWidth, mHeight, mFillPaint);
+        float centerX = mWidth / 2f;
+        float centerY = mHeight / 2f;
+        // worked out by whichever background sharing the geometry gets here first
+        mMarkers.setBounds(mWidth, mHeight, mRound);
+        if (mRound) {
+            drawRoundMarkers(canvas, centerX, centerY);
+        } else {
+            drawSquareMarkers(canvas);
+        }
+        FaceImage logo = mIcons.getLogo(mStyle.ambient);
+        if (logo != null) {
+            canvas.drawImage(logo, centerX + mStyle.logoOffsetX, centerY + mStyle.logoOffsetY, null);
+        }
+    }
+
+    private void drawRoundMarkers(FaceCanvas canvas, float centerX, float centerY) {
+        MarkerGeometry markers = mMarkers;
+        canvas.drawCircle(centerX, centerY, markers.getRingRadius(), mRingPaint);
+        canvas.drawCircle(centerX, centerY, markers.getInnerRingRadius(), mRingPaint);
+        canvas.drawLines(markers.getHeavyTicks(), 0, markers.getHeavyTickCount(), mHeavyMarkPaint);
+        canvas.drawLines(markers.getThinTicks(), 0, markers.getThinTickCount(), mThinMarkPaint);
+    }
+
+    private void drawSquareMarkers(FaceCanvas canvas) {
+        MarkerGeometry markers = mMarkers;
+        // the ticks are lines from the center, cut down to the edge by rectangles on top; the
+        // hour ticks are drawn again after the first, so they come out longer, and twice over
+        // at the edge, which makes their anti-aliasing heavier there
+        if (!mStyle.ambient) {
+            canvas.drawLines(markers.getThinTicks(), 0, markers.getThinTickCount(), mThinMarkPaint);
+            canvas.drawLines(markers.getHeavyTicks(), 0, markers.getHeavyTickCount(),
+                    mHeavyMarkPaint);
+            canvas.drawRect(10, 10, mWidth - 10, mHeight - 10, mFillPaint);
+        }
+        canvas.drawLines(markers.getHeavyTicks(), 0, markers.getHeavyTickCount(), mHeavyMarkPaint);
+        canvas.drawRect(20, 20, mWidth - 20, mHeight - 20, mFillPaint);
+    }
+
+    private void measureTemperatures(FaceCanvas canvas, FaceImage icon, float[] bounds) {
+        setEmpty(bounds);
+        if (icon == null) {
+            return;
+        }
+        float centerY = mHeight / 2f;
+        float x = mStyle.xOffset;
+        float highWidth = canvas.measureText(mHighText, mTextPaint);
+        float lowWidth = canvas.measureText(mLowText, mTextPaint);
+        // the low temperature is centered under the high one, so when it is wider it sticks
+        // out on the left as well
+        float lowOffset = (highWidth - lowWidth) / 2;
+        float unitRight = x + highWidth + 5 + canvas.measureText(mUnitText, mTextPaint);
+        float lowRight = x + Math.max(highWidth, lowOffset + lowWidth);
+        bounds[0] = x + Math.min(0, lowOffset) - WEATHER_PADDING;
+        // ascent of the high temperature, descent of the low one
+        bounds[1] = centerY - mStyle.heavyMarkStroke - mStyle.textSize - WEATHER_PADDING;
+        bounds[2] = Math.max(unitRight, lowRight) + WEATHER_PADDING;
+        bounds[3] = centerY + mStyle.textSpacing + mStyle.textSize / 3 + WEATHER_PADDING;
+    }
+
+    private void measureIcon(FaceImage icon, float[] bounds) {
+        setEmpty(bounds);
+        if (icon == null) {
+            return;
+        }
+        float centerY = mHeight / 2f;
+        float left = mWidth / 2f + mStyle.weatherIconOffsetX;
+        float top = centerY - mStyle.weatherIconOffsetY;
+        float radius = mStyle.weatherIconRadius;
+        bounds[0] = left - WEATHER_PADDING;
+        bounds[1] = Math.min(centerY - radius, top) - WEATHER_PADDING;
+        bounds[2] = Math.max(left + 2 * radius, left + icon.getWidth()) + WEATHER_PADDING;
+        bounds[3] = Math.max(centerY + radius, top + icon.getHeight()) + WEATHER_PADDING;
+    }
+
+    private void drawWeather(FaceCanvas canvas, FaceImage icon) {
+        if (icon == null) {
+            return;
+        }
+        float centerX = mWidth / 2f;
+        float centerY = mHeight / 2f;
+        float x = mStyle.xOffset;
+        float highWidth = canvas.measureText(mHighText, mTextPaint);
+        float lowOffset = (highWidth - canvas.measureText(mLowText, mTextPaint)) / 2;
+        drawText(canvas, mHighText, x, centerY - mStyle.heavyMarkStroke);
+        drawText(canvas, mLowText, x + lowOffset, centerY + mStyle.textSpacing);
+        drawText(canvas, mUnitText, x + highWidth + 5, centerY + mStyle.textSpacing / 2);
+        canvas.drawLine(x, centerY, x + highWidth, centerY, mDividerPaint);
+
+        float radius = mStyle.weatherIconRadius;
+        float iconLeft = centerX + mStyle.weatherIconOffsetX;
+        canvas.drawCircle(iconLeft + radius, centerY, radius, mIconBackgroundPaint);
+        if (mStyle.ambient) {
+            canvas.drawCircle(iconLeft + radius, centerY, radius, mIconRingPaint);
+        }
+        canvas.drawImage(icon, iconLeft, centerY - mStyle.weatherIconOffsetY, null);
+    }
+
+    private void drawText(FaceCanvas canvas, String text, float x, float y) {
+        if (mStyle.ambient) {
+            // a stroked pass draws the border, the glyphs go on top in the background color
+            canvas.drawText(text, x, y, mTextOutlinePaint);
+            canvas.drawText(text, x, y, mTextFillPaint);
+        } else {
+            canvas.drawText(text, x, y, mTextPaint);
+        }
+    }
+
+    private static void setEmpty(float[] bounds) {
+        bounds[0] = bounds[1] = Float.MAX_VALUE;
+        bounds[2] = bounds[3] = -Float.MAX_VALUE;
+    }
+
+    private static boolean isEmpty(float[] bounds) {
+        return bounds[0] >= bounds[2] || bounds[1] >= bounds[3];
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
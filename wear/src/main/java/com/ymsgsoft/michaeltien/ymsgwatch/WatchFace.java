@@ -0,0 +1,129 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * One frame of the watch face: the background of the mode, and the hands on top of it.
+ *
+ * Everything the engine draws goes through {@link #drawFrame}, onto any {@link FaceCanvas}, so a
+ * frame can be rendered off screen on the JVM exactly as it is on the watch.
+ *
+ * On displays that need burn-in protection the ambient frame is moved round a few pixels, one
+ * step a minute.  The canvas is translated; the background and the hand sprites are drawn from
+ * their caches as they are, so a move costs nothing but the strip it uncovers.
+ */
+class WatchFace {
+    // pixels between the positions of the ambient frame
+    static final int BURN_IN_SHIFT = 4;
+    // where the ambient frame is moved to, in steps of BURN_IN_SHIFT, x then y; neighbours are
+    // next to each other, the last one included, so the frame never jumps
+    private static final int[] BURN_IN_OFFSETS = {
+            0, 0, 1, 0, 1, 1, 0, 1, -1, 1, -1, 0, -1, -1, 0, -1, 1, -1,
+    };
+
+    /**
+     * A background, which may not be ready to draw yet.
+     */
+    interface Background {
+        /**
+         * @return false if there is nothing to draw yet.
+         */
+        boolean draw(FaceCanvas canvas);
+    }
+
+    private final WatchFaceRenderer mRenderer;
+    private final Background mInteractiveBackground;
+    private final Background mAmbientBackground;
+    // drawn until the background is ready
+    private final FacePaint mInteractiveFillPaint;
+    private final FacePaint mAmbientFillPaint;
+    private boolean mBurnInProtection;
+
+    WatchFace(WatchFaceRenderer.Style style, WatchFaceRenderer renderer,
+              Background interactiveBackground, Background ambientBackground) {
+        mRenderer = renderer;
+        mInteractiveBackground = interactiveBackground;
+        mAmbientBackground = ambientBackground;
+        mInteractiveFillPaint = new FacePaint(style.backgroundColor, FacePaint.STYLE_FILL, 0);
+        mAmbientFillPaint = new FacePaint(style.ambientBackgroundColor, FacePaint.STYLE_FILL, 0);
+    }
+
+    WatchFaceRenderer getRenderer() {
+        return mRenderer;
+    }
+
+    /**
+     * Lay the hands out for a surface of the given size; the backgrounds are sized by their
+     * owner.
+     */
+    void setBounds(int width, int height) {
+        if (width != mRenderer.getWidth() || height != mRenderer.getHeight()) {
+            mRenderer.setBounds(width, height);
+        }
+    }
+
+    /**
+     * Move the ambient frame round, for displays that need burn-in protection.
+     */
+    void setBurnInProtection(boolean burnInProtection) {
+        mBurnInProtection = burnInProtection;
+    }
+
+    /**
+     * @return how far the ambient frame is moved right at the given time, in pixels.
+     */
+    float getBurnInOffsetX(int hour, int minute) {
+        return mBurnInProtection
+                ? BURN_IN_OFFSETS[burnInPosition(hour, minute)] * BURN_IN_SHIFT : 0;
+    }
+
+    /**
+     * @return how far the ambient frame is moved down at the given time, in pixels.
+     */
+    float getBurnInOffsetY(int hour, int minute) {
+        return mBurnInProtection
+                ? BURN_IN_OFFSETS[burnInPosition(hour, minute) + 1] * BURN_IN_SHIFT : 0;
+    }
+
+    private static int burnInPosition(int hour, int minute) {
+        return (hour * 60 + minute) % (BURN_IN_OFFSETS.length / 2) * 2;
+    }
+
+    /**
+     * Draw the face for the given time.
+     *
+     * @param millis into the second, for a smooth second hand; 0 for a ticking one.
+     */
+    void drawFrame(FaceCanvas canvas, int hour, int minute, int second, int millis,
+                   boolean ambient) {
+        if (!ambient || !mBurnInProtection) {
+            drawContent(canvas, hour, minute, second, millis, ambient);
+            return;
+        }
+        float dx = getBurnInOffsetX(hour, minute);
+        float dy = getBurnInOffsetY(hour, minute);
+        int width = mRenderer.getWidth();
+        int height = mRenderer.getHeight();
+        // the strips the moved frame leaves uncovered
+        if (dx != 0) {
+            canvas.drawRect(dx > 0 ? 0 : width + dx, 0, dx > 0 ? dx : width, height,
+                    mAmbientFillPaint);
+        }
+        if (dy != 0) {
+            canvas.drawRect(0, dy > 0 ? 0 : height + dy, width, dy > 0 ? dy : height,
+                    mAmbientFillPaint);
+        }
+        canvas.save();
+        canvas.translate(dx, dy);
+        drawContent(canvas, hour, minute, second, millis, true);
+        canvas.restore();
+    }
+
+    private void drawContent(FaceCanvas canvas, int hour, int minute, int second, int millis,
+                             boolean ambient) {
+        Background background = ambient ? mAmbientBackground : mInteractiveBackground;
+        if (!background.draw(canvas)) {
+            canvas.drawRect(0, 0, mRenderer.getWidth(), mRenderer.getHeight(),
+                    ambient ? mAmbientFillPaint : mInteractiveFillPaint);
+        }
+        mRenderer.drawHands(canvas, hour, minute, second, millis, ambient);
+    }
+}
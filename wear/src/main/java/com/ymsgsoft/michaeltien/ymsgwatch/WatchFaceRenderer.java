@@ -0,0 +1,239 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * Draws the hands of the watch face on top of its background.
+ *
+ * Everything that only depends on the surface size is worked out in {@link #setBounds}, the
+ * second hand's tip for every step of every second included, so {@link #drawHands} does no
+ * trigonometry, changes no paint state and allocates nothing.  It runs every second in
+ * interactive mode, or up to {@link #SECOND_STEPS} times a second with a smooth second hand.
+ *
+ * The minute and hour hands, fill and divider shadow, are rendered once into sprites for each
+ * mode and blitted rotated into place.  Sprites are rebuilt for a new surface size, after
+ * {@link #invalidateSprites()}, or when a mode's anti-aliasing changes.
+ */
+class WatchFaceRenderer {
+    // hand lengths are the radius minus these
+    static final float SECOND_HAND_INSET = 20;
+    static final float MINUTE_HAND_INSET = 40;
+    static final float HOUR_HAND_INSET = 80;
+    // positions of the second hand within a second
+    static final int SECOND_STEPS = 30;
+
+    /**
+     * Colors and dimensions, read from resources by the engine.
+     */
+    static class Style {
+        int handColor;
+        int secondHandColor;
+        int backgroundColor;
+        int ambientBackgroundColor;
+        float innerRadius;
+        float handWidth;
+        float secondHandWidth;
+        // gap between the center and the inner end of each hand
+        float minuteDelta;
+        float hourDelta;
+    }
+
+    private static final int INTERACTIVE = 0;
+    private static final int AMBIENT = 1;
+
+    private final Style mStyle;
+    private final FaceImage.Factory mImageFactory;
+    // hands in interactive mode, their outline in the background color, hands in ambient mode
+    private final FacePaint mHandFillPaint;
+    private final FacePaint mHandShadowPaint;
+    private final FacePaint mHandOutlinePaint;
+    private final FacePaint mCenterPaint;
+    private final FacePaint mSecondHandPaint;
+    private final FacePaint mSecondCenterPaint;
+    private final FacePaint mSpritePaint = new FacePaint();
+
+    // indexed by INTERACTIVE or AMBIENT, null until first drawn
+    private final FaceImage[] mMinuteSprites = new FaceImage[2];
+    private final FaceImage[] mHourSprites = new FaceImage[2];
+    private final boolean[] mSpriteAntiAlias = new boolean[2];
+    // transparent border round a hand in its sprite, room for the stroke and filtering
+    private final float mSpriteMargin;
+    private int mSpriteBuilds;
+
+    private int mWidth;
+    private int mHeight;
+    private float mCenterX;
+    private float mCenterY;
+    // the hands pointing at 12, rotated into place by the canvas
+    private float mHandLeft;
+    private float mHandRight;
+    private float mMinuteTop;
+    private float mMinuteBottom;
+    private float mHourTop;
+    private float mHourBottom;
+    private final float[] mSecondX = new float[60 * SECOND_STEPS];
+    private final float[] mSecondY = new float[60 * SECOND_STEPS];
+
+    WatchFaceRenderer(Style style, FaceImage.Factory imageFactory) {
+        mStyle = style;
+        mImageFactory = imageFactory;
+        mHandFillPaint = handPaint(style.handColor, FacePaint.STYLE_FILL, style.handWidth);
+        mHandShadowPaint = handPaint(style.backgroundColor, FacePaint.STYLE_STROKE, style.handWidth);
+        mHandOutlinePaint = handPaint(style.handColor, FacePaint.STYLE_STROKE, style.handWidth);
+        mCenterPaint = handPaint(style.ambientBackgroundColor, FacePaint.STYLE_FILL, 0);
+        mSecondHandPaint = handPaint(style.secondHandColor, FacePaint.STYLE_STROKE,
+                style.secondHandWidth);
+        mSecondCenterPaint = handPaint(style.secondHandColor, FacePaint.STYLE_FILL, 0);
+        mSpritePaint.setAntiAlias(true);
+        mSpriteMargin = (float) Math.ceil(style.handWidth / 2) + 1;
+    }
+
+    private static FacePaint handPaint(int color, int style, float strokeWidth) {
+        FacePaint paint = new FacePaint(color, style, strokeWidth);
+        paint.setAntiAlias(true);
+        paint.setRoundCap(true);
+        return paint;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return how many hand sprites were rendered so far.
+     */
+    int getSpriteBuilds() {
+        return mSpriteBuilds;
+    }
+
+    /**
+     * Drop the hand sprites; they are rendered again when next drawn.
+     */
+    void invalidateSprites() {
+        for (int mode = INTERACTIVE; mode <= AMBIENT; mode++) {
+            recycle(mMinuteSprites, mode);
+            recycle(mHourSprites, mode);
+        }
+    }
+
+    private static void recycle(FaceImage[] sprites, int mode) {
+        if (sprites[mode] != null) {
+            sprites[mode].recycle();
+            sprites[mode] = null;
+        }
+    }
+
+    /**
+     * Lay the hands out for a surface of the given size.
+     */
+    void setBounds(int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            invalidateSprites();
+        }
+        mWidth = width;
+        mHeight = height;
+        mCenterX = width / 2f;
+        mCenterY = height / 2f;
+        float innerRadius = mStyle.innerRadius;
+        mHandLeft = mCenterX - innerRadius;
+        mHandRight = mCenterX + 2 * innerRadius;
+        mMinuteBottom = mCenterY - mStyle.minuteDelta;
+        mHourBottom = mCenterY - mStyle.hourDelta;
+        // at least a pixel long, even on a tiny surface
+        mMinuteTop = Math.min(mCenterY - (mCenterX - MINUTE_HAND_INSET), mMinuteBottom - 1);
+        mHourTop = Math.min(mCenterY - (mCenterX - HOUR_HAND_INSET), mHourBottom - 1);
+        float secondLength = mCenterX - SECOND_HAND_INSET;
+        for (int i = 0; i < mSecondX.length; i++) {
+            double rotation = i / (30.0 * SECOND_STEPS) * Math.PI;
+            mSecondX[i] = mCenterX + (float) Math.sin(rotation) * secondLength;
+            mSecondY[i] = mCenterY - (float) Math.cos(rotation) * secondLength;
+        }
+    }
+
+    /**
+     * Anti-aliasing is turned off in ambient mode on low-bit displays.
+     */
+    void setAntiAlias(boolean antiAlias) {
+        mHandFillPaint.setAntiAlias(antiAlias);
+        mHandShadowPaint.setAntiAlias(antiAlias);
+        mHandOutlinePaint.setAntiAlias(antiAlias);
+        mCenterPaint.setAntiAlias(antiAlias);
+        mSecondHandPaint.setAntiAlias(antiAlias);
+        mSecondCenterPaint.setAntiAlias(antiAlias);
+        mSpritePaint.setAntiAlias(antiAlias);
+    }
+
+    /**
+     * Draw the hands for the given time; the second hand only in interactive mode.
+     */
+    void drawHands(FaceCanvas canvas, int hour, int minute, int second, boolean ambient) {
+        drawHands(canvas, hour, minute, second, 0, ambient);
+    }
+
+    /**
+     * Draw the hands with the second hand between seconds, at the step the millis fall in.
+     */
+    void drawHands(FaceCanvas canvas, int hour, int minute, int second, int millis,
+                   boolean ambient) {
+        float centerX = mCenterX;
+        float centerY = mCenterY;
+        float minuteDegrees = minute * 6f;
+        float hourDegrees = hour * 30f + minute / 2f;
+
+        int mode = ambient ? AMBIENT : INTERACTIVE;
+        if (mMinuteSprites[mode] == null || mSpriteAntiAlias[mode] != mSpritePaint.isAntiAlias()) {
+            buildSprites(mode);
+        }
+
+        canvas.save();
+        canvas.rotate(minuteDegrees, centerX, centerY);
+        canvas.drawImage(mMinuteSprites[mode], mHandLeft - mSpriteMargin,
+                mMinuteTop - mSpriteMargin, mSpritePaint);
+        canvas.rotate(hourDegrees - minuteDegrees, centerX, centerY);
+        canvas.drawImage(mHourSprites[mode], mHandLeft - mSpriteMargin,
+                mHourTop - mSpriteMargin, mSpritePaint);
+        canvas.restore();
+
+        float innerRadius = mStyle.innerRadius;
+        canvas.drawCircle(centerX, centerY, innerRadius * 2, mHandOutlinePaint);
+        if (ambient) {
+            canvas.drawCircle(centerX, centerY, innerRadius, mCenterPaint);
+            return;
+        }
+        // Time allows a leap second 60
+        int step = (second % 60) * SECOND_STEPS + millis * SECOND_STEPS / 1000;
+        canvas.drawLine(centerX, centerY, mSecondX[step], mSecondY[step], mSecondHandPaint);
+        canvas.drawCircle(centerX, centerY, innerRadius * 2, mSecondCenterPaint);
+    }
+
+    private void buildSprites(int mode) {
+        recycle(mMinuteSprites, mode);
+        recycle(mHourSprites, mode);
+        mMinuteSprites[mode] = buildSprite(mMinuteBottom - mMinuteTop, mode == AMBIENT);
+        mHourSprites[mode] = buildSprite(mHourBottom - mHourTop, mode == AMBIENT);
+        mSpriteAntiAlias[mode] = mSpritePaint.isAntiAlias();
+    }
+
+    /**
+     * Render a hand of the given length pointing up, with {@link #mSpriteMargin} all round.
+     */
+    private FaceImage buildSprite(float length, boolean ambient) {
+        float margin = mSpriteMargin;
+        float right = margin + mHandRight - mHandLeft;
+        float bottom = margin + length;
+        FaceImage sprite = mImageFactory.createImage((int) Math.ceil(right + margin),
+                (int) Math.ceil(bottom + margin));
+        FaceCanvas canvas = sprite.getCanvas();
+        if (ambient) {
+            canvas.drawRect(margin, margin, right, bottom, mHandOutlinePaint);
+        } else {
+            canvas.drawRect(margin, margin, right, bottom, mHandFillPaint);
+            // divider shadow
+            canvas.drawRect(margin, margin, right, bottom, mHandShadowPaint);
+        }
+        mSpriteBuilds++;
+        return sprite;
+    }
+}
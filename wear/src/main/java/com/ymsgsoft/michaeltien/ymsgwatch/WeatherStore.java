@@ -0,0 +1,251 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The weather shown on the watch face and the complete forecast it was picked from, held in
+ * memory and kept in one small binary file.
+ *
+ * Changes take effect in memory at once; the file is written on the executor, and changes made
+ * while a write is queued go out with it.  Each write goes to a temporary file that is renamed
+ * over the old one, so {@link #load()} always finds one of them whole, in a single read.
+ *
+ * Layout, integers big endian:
+ * <pre>
+ *   version                      1 byte
+ *   weather id, high, low        4 bytes each
+ *   flags                        1 byte, metric and has forecast
+ *   forecast length, forecast    4 bytes, then the forecast in {@link WeatherWireFormat}
+ * </pre>
+ */
+class WeatherStore {
+    static final int VERSION = 1;
+
+    private static final int FLAG_METRIC = 1;
+    private static final int FLAG_FORECAST = 2;
+    // everything but the forecast
+    private static final int RECORD_SIZE = 18;
+
+    private final File mFile;
+    private final File mTempFile;
+    private final Executor mExecutor;
+    private final AtomicBoolean mWriteQueued = new AtomicBoolean();
+    private volatile int mWrites;
+    private volatile int mFailedWrites;
+
+    // guarded by this
+    private int mWeatherId;
+    private int mHigh;
+    private int mLow;
+    private boolean mMetric;
+    private WeatherWireFormat.Forecast mForecast;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            // changes after this point queue another write
+            mWriteQueued.set(false);
+            write();
+        }
+    };
+
+    /**
+     * @param executor writes the file, off the thread making the changes.
+     */
+    WeatherStore(File file, Executor executor) {
+        mFile = file;
+        mTempFile = new File(file.getPath() + ".tmp");
+        mExecutor = executor;
+    }
+
+    synchronized int getWeatherId() {
+        return mWeatherId;
+    }
+
+    /**
+     * @return today's high, in whole degrees.
+     */
+    synchronized int getHigh() {
+        return mHigh;
+    }
+
+    synchronized int getLow() {
+        return mLow;
+    }
+
+    synchronized boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the complete forecast, or null if none was stored.
+     */
+    synchronized WeatherWireFormat.Forecast getForecast() {
+        return mForecast;
+    }
+
+    int getWrites() {
+        return mWrites;
+    }
+
+    int getFailedWrites() {
+        return mFailedWrites;
+    }
+
+    void setWeather(int weatherId, int high, int low, boolean isMetric) {
+        synchronized (this) {
+            if (weatherId == mWeatherId && high == mHigh && low == mLow && isMetric == mMetric) {
+                return;
+            }
+            mWeatherId = weatherId;
+            mHigh = high;
+            mLow = low;
+            mMetric = isMetric;
+        }
+        queueWrite();
+    }
+
+    /**
+     * @param forecast a complete forecast, not changed after it is handed over.
+     */
+    void setForecast(WeatherWireFormat.Forecast forecast) {
+        synchronized (this) {
+            mForecast = forecast;
+        }
+        queueWrite();
+    }
+
+    /**
+     * Read the file back, blocking for one small read.
+     *
+     * @return false, leaving everything as it was, if there is no file or it can't be read.
+     */
+    boolean load() {
+        byte[] data;
+        try {
+            data = readFile();
+        } catch (IOException e) {
+            return false;
+        }
+        if (data == null) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readUnsignedByte() != VERSION) {
+                return false;
+            }
+            int weatherId = in.readInt();
+            int high = in.readInt();
+            int low = in.readInt();
+            int flags = in.readUnsignedByte();
+            int length = in.readInt();
+            // a damaged length must not allocate more than the file holds
+            if (length < 0 || length > data.length - RECORD_SIZE) {
+                return false;
+            }
+            byte[] forecastData = new byte[length];
+            in.readFully(forecastData);
+            WeatherWireFormat.Forecast forecast = (flags & FLAG_FORECAST) == 0 ? null
+                    : WeatherWireFormat.decode(forecastData);
+            synchronized (this) {
+                mWeatherId = weatherId;
+                mHigh = high;
+                mLow = low;
+                mMetric = (flags & FLAG_METRIC) != 0;
+                mForecast = forecast;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        if (!mFile.isFile()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(mFile);
+        try {
+            byte[] data = new byte[(int) mFile.length()];
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                read += count;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void queueWrite() {
+        if (mWriteQueued.compareAndSet(false, true)) {
+            mExecutor.execute(mWrite);
+        }
+    }
+
+    private void write() {
+        int weatherId;
+        int high;
+        int low;
+        boolean metric;
+        WeatherWireFormat.Forecast forecast;
+        synchronized (this) {
+            weatherId = mWeatherId;
+            high = mHigh;
+            low = mLow;
+            metric = mMetric;
+            forecast = mForecast;
+        }
+        byte[] forecastData = forecast == null ? new byte[0] : WeatherWireFormat.encode(forecast);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_SIZE + forecastData.length);
+        DataOutputStream data = new DataOutputStream(bytes);
+        FileOutputStream out = null;
+        try {
+            data.writeByte(VERSION);
+            data.writeInt(weatherId);
+            data.writeInt(high);
+            data.writeInt(low);
+            data.writeByte((metric ? FLAG_METRIC : 0) | (forecast != null ? FLAG_FORECAST : 0));
+            data.writeInt(forecastData.length);
+            data.write(forecastData);
+
+            out = new FileOutputStream(mTempFile);
+            bytes.writeTo(out);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!mTempFile.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + mTempFile + " to " + mFile);
+            }
+            mWrites++;
+        } catch (IOException e) {
+            // the next change tries again; what was written before is still whole
+            mFailedWrites++;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // already failed
+                }
+            }
+        }
+    }
+}
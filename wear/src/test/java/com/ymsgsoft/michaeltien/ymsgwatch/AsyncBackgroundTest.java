@@ -0,0 +1,156 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncBackgroundTest {
+    static final int SIZE = WatchBackgroundTest.SIZE;
+
+    /**
+     * Holds the tasks until the test runs them, as the worker would.
+     */
+    static class QueueExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    static class CountingListener implements AsyncBackground.Listener {
+        final AtomicInteger ready = new AtomicInteger();
+
+        @Override
+        public void onBackgroundReady(AsyncBackground background) {
+            ready.incrementAndGet();
+        }
+    }
+
+    private final CountingFaceImage.Factory mFactory = new CountingFaceImage.Factory();
+    private final WatchBackground mBackground = new WatchBackground(
+            WatchBackgroundTest.style(false), new WatchBackgroundTest.TestIcons(), mFactory);
+    private final QueueExecutor mExecutor = new QueueExecutor();
+    private final CountingListener mListener = new CountingListener();
+    private final AsyncBackground mAsync = new AsyncBackground(mBackground, mExecutor, mListener);
+
+    @Test
+    public void nothingIsDrawnUntilTheWorkerRendered() throws Exception {
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        mAsync.setBounds(SIZE, SIZE, true);
+        mAsync.setWeather(800, 22, 12, true);
+        assertFalse(mAsync.draw(canvas));
+        assertEquals(0, canvas.images);
+        assertEquals(0, mFactory.created);
+
+        mExecutor.runAll();
+        assertEquals(1, mListener.ready.get());
+        assertTrue(mAsync.draw(canvas));
+        assertEquals(1, canvas.images);
+    }
+
+    @Test
+    public void changesQueuedTogetherRenderOnce() throws Exception {
+        mAsync.setBounds(SIZE, SIZE, true);
+        mAsync.setWeather(800, 22, 12, true);
+        mAsync.setWeather(800, 23, 12, true);
+        mAsync.setTextLayout(60, 36, 40);
+        mExecutor.runAll();
+        assertEquals(1, mAsync.getSwaps());
+        assertEquals(1, mBackground.getWeatherRenders());
+
+        // the same bounds again are not even queued
+        mAsync.setBounds(SIZE, SIZE, true);
+        assertTrue(mExecutor.tasks.isEmpty());
+        // nor is anything rendered for weather already shown
+        mAsync.setWeather(800, 23, 12, true);
+        mExecutor.runAll();
+        assertEquals(1, mAsync.getSwaps());
+        assertEquals(1, mListener.ready.get());
+    }
+
+    @Test
+    public void buffersAlternateAndKeepTheirImages() throws Exception {
+        final List<CountingFaceImage> drawn = new ArrayList<CountingFaceImage>();
+        CountingFaceCanvas canvas = new CountingFaceCanvas() {
+            @Override
+            public void drawImage(FaceImage image, float left, float top, FacePaint paint) {
+                super.drawImage(image, left, top, paint);
+                drawn.add((CountingFaceImage) image);
+            }
+        };
+        mAsync.setBounds(SIZE, SIZE, true);
+        for (int i = 0; i < 10; i++) {
+            mAsync.setWeather(800, 20 + i, 12, true);
+            mExecutor.runAll();
+            mAsync.draw(canvas);
+            if (i > 1) {
+                // once both buffers hold a composite, only the temperatures are drawn again
+                assertTrue(mBackground.getLastCompositedArea() < (long) SIZE * SIZE / 5);
+            }
+        }
+        assertEquals(10, mAsync.getSwaps());
+        assertNotSame(drawn.get(0), drawn.get(1));
+        assertSame(drawn.get(0), drawn.get(2));
+        // the static layer and the two buffers
+        assertEquals(3, mFactory.created);
+        assertEquals(1, mBackground.getStaticRenders());
+
+        // a new size replaces both buffers as they are rendered to
+        mAsync.setBounds(280, 280, true);
+        mExecutor.runAll();
+        mAsync.draw(canvas);
+        assertEquals(280, drawn.get(drawn.size() - 1).width);
+        assertEquals(5, mFactory.created);
+    }
+
+    @Test
+    public void recycleFreesTheBuffers() throws Exception {
+        mAsync.setBounds(SIZE, SIZE, true);
+        mAsync.setWeather(800, 22, 12, true);
+        mExecutor.runAll();
+        mAsync.setWeather(800, 23, 12, true);
+        mExecutor.runAll();
+        mAsync.recycle();
+        mExecutor.runAll();
+        assertFalse(mAsync.draw(new CountingFaceCanvas()));
+    }
+
+    @Test
+    public void drawingWhileTheWorkerRenders() throws Exception {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        AsyncBackground async = new AsyncBackground(mBackground, worker, mListener);
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        async.setBounds(SIZE, SIZE, false);
+        for (int i = 0; i < 20000; i++) {
+            async.setWeather(800 + i % 3, i % 40, i % 20, true);
+            // a recycled or missing image would throw
+            async.draw(canvas);
+        }
+        async.recycle();
+        worker.shutdown();
+        assertTrue(worker.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(async.getSwaps() > 0);
+        assertEquals(async.getSwaps(), mListener.ready.get());
+        // never more than the static layer and the two buffers
+        assertTrue(mFactory.created <= 3);
+        // no more renders than changes, and frames were drawn from the ready buffer meanwhile
+        assertTrue(async.getSwaps() <= 20000);
+        assertTrue(canvas.images > 0);
+    }
+}
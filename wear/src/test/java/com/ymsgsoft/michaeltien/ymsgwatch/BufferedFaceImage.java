@@ -0,0 +1,59 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * {@link FaceImage} over a BufferedImage, drawn into with a {@link Graphics2DFaceCanvas}.
+ */
+class BufferedFaceImage implements FaceImage {
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public FaceImage createImage(int width, int height) {
+            return new BufferedFaceImage(new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_ARGB));
+        }
+    };
+
+    // as AndroidFaceImage.RGB_565_FACTORY
+    static final Factory RGB_565_FACTORY = new Factory() {
+        @Override
+        public FaceImage createImage(int width, int height) {
+            return new BufferedFaceImage(new BufferedImage(width, height,
+                    BufferedImage.TYPE_USHORT_565_RGB));
+        }
+    };
+
+    private final BufferedImage mImage;
+    private Graphics2DFaceCanvas mCanvas;
+
+    BufferedFaceImage(BufferedImage image) {
+        mImage = image;
+    }
+
+    BufferedImage getImage() {
+        return mImage;
+    }
+
+    @Override
+    public int getWidth() {
+        return mImage.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mImage.getHeight();
+    }
+
+    @Override
+    public FaceCanvas getCanvas() {
+        if (mCanvas == null) {
+            mCanvas = new Graphics2DFaceCanvas(mImage.createGraphics());
+        }
+        return mCanvas;
+    }
+
+    @Override
+    public void recycle() {
+        mImage.flush();
+    }
+}
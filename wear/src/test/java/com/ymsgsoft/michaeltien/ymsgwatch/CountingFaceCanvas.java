@@ -0,0 +1,119 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+/**
+ * Headless {@link FaceCanvas} that counts the calls made to it and keeps the last line drawn.
+ * It allocates nothing itself, so allocations measured around a frame are the renderer's.
+ * Text measures {@link #CHAR_WIDTH} of the text size per character.
+ */
+class CountingFaceCanvas implements FaceCanvas {
+    static final float CHAR_WIDTH = 0.6f;
+
+    int saves;
+    int restores;
+    int rotations;
+    int translations;
+    int rects;
+    int circles;
+    int lines;
+    // drawLines calls, and the lines they drew
+    int lineBatches;
+    int batchedLines;
+    int images;
+    int texts;
+    int clips;
+    int depth;
+    float lastRotation;
+    // all translations added up; restore() does not take them back
+    float translateX;
+    float translateY;
+    float lineStartX;
+    float lineStartY;
+    float lineStopX;
+    float lineStopY;
+
+    void reset() {
+        saves = restores = rotations = translations = rects = circles = lines = lineBatches = 0;
+        batchedLines = images = texts = clips = 0;
+        translateX = translateY = 0;
+    }
+
+    int drawCalls() {
+        return rects + circles + lines + lineBatches + images + texts;
+    }
+
+    @Override
+    public void save() {
+        saves++;
+        depth++;
+    }
+
+    @Override
+    public void rotate(float degrees, float px, float py) {
+        rotations++;
+        lastRotation = degrees;
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        translations++;
+        translateX += dx;
+        translateY += dy;
+    }
+
+    @Override
+    public void restore() {
+        if (depth == 0) {
+            throw new IllegalStateException("restore() without save()");
+        }
+        restores++;
+        depth--;
+    }
+
+    @Override
+    public void clipRect(float left, float top, float right, float bottom) {
+        clips++;
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, FacePaint paint) {
+        rects++;
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, FacePaint paint) {
+        circles++;
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, FacePaint paint) {
+        lines++;
+        lineStartX = startX;
+        lineStartY = startY;
+        lineStopX = stopX;
+        lineStopY = stopY;
+    }
+
+    @Override
+    public void drawLines(float[] points, int offset, int count, FacePaint paint) {
+        lineBatches++;
+        batchedLines += count / 4;
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, FacePaint paint) {
+        texts++;
+    }
+
+    @Override
+    public float measureText(String text, FacePaint paint) {
+        return text.length() * paint.getTextSize() * CHAR_WIDTH;
+    }
+
+    @Override
+    public void drawImage(FaceImage image, float left, float top, FacePaint paint) {
+        if (((CountingFaceImage) image).recycled) {
+            throw new IllegalStateException("drawing a recycled image");
+        }
+        images++;
+    }
+}
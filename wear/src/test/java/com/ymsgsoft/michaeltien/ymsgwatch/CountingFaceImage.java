@@ -0,0 +1,57 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless {@link FaceImage}: a size and a {@link CountingFaceCanvas} recording what was drawn
+ * into it.
+ */
+class CountingFaceImage implements FaceImage {
+    static class Factory implements FaceImage.Factory {
+        int created;
+        // in the order they were created
+        final List<CountingFaceImage> images = new ArrayList<CountingFaceImage>();
+
+        @Override
+        public FaceImage createImage(int width, int height) {
+            created++;
+            CountingFaceImage image = new CountingFaceImage(width, height);
+            images.add(image);
+            return image;
+        }
+    }
+
+    final int width;
+    final int height;
+    final CountingFaceCanvas canvas = new CountingFaceCanvas();
+    boolean recycled;
+
+    CountingFaceImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public FaceCanvas getCanvas() {
+        if (recycled) {
+            throw new IllegalStateException("recycled");
+        }
+        return canvas;
+    }
+
+    @Override
+    public void recycle() {
+        recycled = true;
+    }
+}
@@ -0,0 +1,76 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Times a frame on the JVM and counts the bytes it allocates, through the HotSpot thread
+ * allocation counter when the JVM has one.
+ */
+class FrameBenchmark {
+    interface Frame {
+        void draw(int i);
+    }
+
+    final String name;
+    final int frames;
+    final long nanosPerFrame;
+    // -1 when the JVM can't count allocations
+    final double bytesPerFrame;
+
+    private FrameBenchmark(String name, int frames, long nanosPerFrame, double bytesPerFrame) {
+        this.name = name;
+        this.frames = frames;
+        this.nanosPerFrame = nanosPerFrame;
+        this.bytesPerFrame = bytesPerFrame;
+    }
+
+    boolean countsAllocations() {
+        return bytesPerFrame >= 0;
+    }
+
+    /**
+     * @return true if the slow benchmarks are to run, with FRAME_BENCHMARKS=1 in the environment
+     * or -Dframe.benchmarks=true.
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean("frame.benchmarks") || System.getenv("FRAME_BENCHMARKS") != null;
+    }
+
+    /**
+     * Draw {@code frames} frames to warm up the JIT, then as many again measured.
+     */
+    static FrameBenchmark run(String name, int frames, Frame frame) {
+        for (int i = 0; i < frames; i++) {
+            frame.draw(i);
+        }
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            frame.draw(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytesAfter = allocatedBytes();
+        double bytesPerFrame = bytesBefore < 0 ? -1 : (bytesAfter - bytesBefore) / (double) frames;
+        FrameBenchmark result = new FrameBenchmark(name, frames, elapsed / frames, bytesPerFrame);
+        // only an opted-in run reports; otherwise callers check what they need on the result
+        if (isEnabled()) {
+            System.out.println(name + ": " + result.nanosPerFrame + " ns/frame, "
+                    + (result.countsAllocations() ? result.bytesPerFrame + " bytes/frame"
+                    : "allocations not counted"));
+        }
+        return result;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean hotSpot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotSpot.isThreadAllocatedMemorySupported() || !hotSpot.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return hotSpot.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
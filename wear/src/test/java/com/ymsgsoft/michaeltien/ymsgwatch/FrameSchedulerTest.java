@@ -0,0 +1,109 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameSchedulerTest {
+    // a whole minute, so slots start on round numbers
+    private static final long START = 1450000020000L;
+
+    /**
+     * Run the timer the way the engine does for the given time, drawing when told to.
+     *
+     * @return the frames drawn.
+     */
+    private static long runTimer(FrameScheduler scheduler, long start, long durationMs,
+                                 long lateMs) {
+        long now = start;
+        long frames = scheduler.getFramesDrawn();
+        while (now < start + durationMs) {
+            if (scheduler.onWakeup(now)) {
+                scheduler.onFrameDrawn(now);
+            }
+            now += scheduler.getDelayMs(now) + lateMs;
+        }
+        return scheduler.getFramesDrawn() - frames;
+    }
+
+    @Test
+    public void tickingDrawsOnceASecond() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(0, START);
+        scheduler.setMode(true, false, START);
+        assertEquals(FrameScheduler.MODE_TICKING, scheduler.getMode());
+        assertTrue(scheduler.isTimerNeeded());
+        assertEquals(1000, scheduler.getDelayMs(START));
+        assertEquals(1, scheduler.getDelayMs(START + 999));
+        assertEquals(60, runTimer(scheduler, START, 60000, 3));
+        assertEquals(0, scheduler.getSecondHandMillis(START + 500));
+    }
+
+    @Test
+    public void wakeupsInADrawnSlotAreSkipped() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(0, START);
+        scheduler.setMode(true, false, START);
+        assertTrue(scheduler.onWakeup(START + 10));
+        scheduler.onFrameDrawn(START + 10);
+        // a frame drawn for the weather, then the timer in the same second
+        assertFalse(scheduler.onWakeup(START + 990));
+        assertTrue(scheduler.onWakeup(START + 1000));
+        assertEquals(1, scheduler.getSkippedWakeups());
+        assertEquals(3, scheduler.getWakeups());
+    }
+
+    @Test
+    public void smoothSecondHandIsCapped() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(10, START);
+        scheduler.setMode(true, false, START);
+        assertEquals(FrameScheduler.MODE_SMOOTH, scheduler.getMode());
+        assertEquals(100, scheduler.getDelayMs(START));
+        assertEquals(600, runTimer(scheduler, START, 60000, 0));
+        // waking late never draws more than the cap
+        assertTrue(runTimer(scheduler, START + 60000, 60000, 7) <= 600);
+        assertEquals(300, scheduler.getSecondHandMillis(START + 345));
+
+        // an uneven rate still lands every wakeup in its own slot
+        FrameScheduler thirds = new FrameScheduler(3, START);
+        thirds.setMode(true, false, START);
+        assertEquals(334, thirds.getDelayMs(START));
+        assertEquals(180, runTimer(thirds, START, 60000, 0));
+        assertEquals(0, thirds.getSkippedWakeups());
+
+        // capped at the renderer's resolution
+        FrameScheduler fast = new FrameScheduler(1000, START);
+        fast.setMode(true, false, START);
+        assertEquals(WatchFaceRenderer.SECOND_STEPS, runTimer(fast, START, 1000, 0));
+    }
+
+    @Test
+    public void ambientWaitsForTheMinute() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(10, START);
+        scheduler.setMode(true, true, START);
+        assertEquals(FrameScheduler.MODE_AMBIENT, scheduler.getMode());
+        assertFalse(scheduler.isTimerNeeded());
+        assertTrue(scheduler.onWakeup(START));
+        scheduler.onFrameDrawn(START);
+        assertFalse(scheduler.onWakeup(START + 30000));
+        assertTrue(scheduler.onWakeup(START + 60000));
+        assertEquals(0, scheduler.getSecondHandMillis(START + 500));
+
+        scheduler.setMode(false, true, START + 60000);
+        assertFalse(scheduler.onWakeup(START + 120000));
+    }
+
+    @Test
+    public void timeIsCountedPerMode() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(0, START);
+        scheduler.setMode(true, false, START + 1000);
+        scheduler.setMode(true, true, START + 6000);
+        scheduler.setMode(true, false, START + 66000);
+        scheduler.setMode(false, false, START + 68000);
+        long now = START + 70000;
+        assertEquals(3000, scheduler.getTimeInMode(FrameScheduler.MODE_OFF, now));
+        assertEquals(7000, scheduler.getTimeInMode(FrameScheduler.MODE_TICKING, now));
+        assertEquals(60000, scheduler.getTimeInMode(FrameScheduler.MODE_AMBIENT, now));
+        assertEquals(0, scheduler.getTimeInMode(FrameScheduler.MODE_SMOOTH, now));
+        assertEquals("0 wakeups, 0 skipped, 0 frames, off 3 s, ambient 60 s, ticking 7 s, smooth 0 s",
+                scheduler.getStats(now));
+    }
+}
@@ -0,0 +1,144 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link FaceCanvas} over Java2D, so the face can be rendered into a BufferedImage on the JVM.
+ *
+ * Follows android.graphics where the two differ: text sizes are pixels, strokes of width 0 are
+ * hairlines, stroked text draws the glyph outlines and the anti-alias flag of the paint also
+ * filters images.  Fonts come from the JVM's sans serif, so text is close to the watch's but not
+ * the same.
+ */
+class Graphics2DFaceCanvas implements FaceCanvas {
+    private final Graphics2D mGraphics;
+    private final List<AffineTransform> mTransforms = new ArrayList<AffineTransform>();
+    private final List<Shape> mClips = new ArrayList<Shape>();
+    private final Line2D.Float mLine = new Line2D.Float();
+    private final Ellipse2D.Float mCircle = new Ellipse2D.Float();
+    private final Rectangle2D.Float mRect = new Rectangle2D.Float();
+
+    Graphics2DFaceCanvas(Graphics2D graphics) {
+        mGraphics = graphics;
+    }
+
+    @Override
+    public void save() {
+        mTransforms.add(mGraphics.getTransform());
+        mClips.add(mGraphics.getClip());
+    }
+
+    @Override
+    public void restore() {
+        mGraphics.setTransform(mTransforms.remove(mTransforms.size() - 1));
+        mGraphics.setClip(mClips.remove(mClips.size() - 1));
+    }
+
+    @Override
+    public void rotate(float degrees, float px, float py) {
+        mGraphics.rotate(Math.toRadians(degrees), px, py);
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        mGraphics.translate(dx, dy);
+    }
+
+    @Override
+    public void clipRect(float left, float top, float right, float bottom) {
+        mRect.setFrame(left, top, right - left, bottom - top);
+        mGraphics.clip(mRect);
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, FacePaint paint) {
+        mRect.setFrame(left, top, right - left, bottom - top);
+        draw(mRect, paint);
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, FacePaint paint) {
+        mCircle.setFrame(cx - radius, cy - radius, 2 * radius, 2 * radius);
+        draw(mCircle, paint);
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, FacePaint paint) {
+        mLine.setLine(startX, startY, stopX, stopY);
+        apply(paint);
+        mGraphics.draw(mLine);
+    }
+
+    @Override
+    public void drawLines(float[] points, int offset, int count, FacePaint paint) {
+        apply(paint);
+        for (int i = offset; i + 3 < offset + count; i += 4) {
+            mLine.setLine(points[i], points[i + 1], points[i + 2], points[i + 3]);
+            mGraphics.draw(mLine);
+        }
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, FacePaint paint) {
+        apply(paint);
+        mGraphics.setFont(font(paint));
+        if (paint.getStyle() == FacePaint.STYLE_STROKE) {
+            mGraphics.draw(mGraphics.getFont().createGlyphVector(
+                    mGraphics.getFontRenderContext(), text).getOutline(x, y));
+        } else {
+            mGraphics.drawString(text, x, y);
+        }
+    }
+
+    @Override
+    public float measureText(String text, FacePaint paint) {
+        return (float) font(paint).getStringBounds(text, mGraphics.getFontRenderContext()).getWidth();
+    }
+
+    @Override
+    public void drawImage(FaceImage image, float left, float top, FacePaint paint) {
+        boolean filter = paint != null && paint.isAntiAlias();
+        mGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, filter
+                ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        AffineTransform transform = AffineTransform.getTranslateInstance(left, top);
+        mGraphics.drawImage(((BufferedFaceImage) image).getImage(), transform, null);
+    }
+
+    private void draw(Shape shape, FacePaint paint) {
+        apply(paint);
+        if (paint.getStyle() == FacePaint.STYLE_STROKE) {
+            mGraphics.draw(shape);
+        } else {
+            mGraphics.fill(shape);
+        }
+    }
+
+    private void apply(FacePaint paint) {
+        mGraphics.setColor(new Color(paint.getColor(), true));
+        mGraphics.setStroke(new BasicStroke(paint.getStrokeWidth(),
+                paint.isRoundCap() ? BasicStroke.CAP_ROUND : BasicStroke.CAP_BUTT,
+                BasicStroke.JOIN_MITER));
+        Object antiAlias = paint.isAntiAlias() ? RenderingHints.VALUE_ANTIALIAS_ON
+                : RenderingHints.VALUE_ANTIALIAS_OFF;
+        mGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antiAlias);
+        mGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, paint.isAntiAlias()
+                ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+    }
+
+    private static Font font(FacePaint paint) {
+        return new Font(Font.SANS_SERIF, paint.isBold() ? Font.BOLD : Font.PLAIN, 1)
+                .deriveFont(paint.getTextSize());
+    }
+}
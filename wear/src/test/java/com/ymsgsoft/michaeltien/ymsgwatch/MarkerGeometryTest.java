@@ -0,0 +1,62 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MarkerGeometryTest {
+    private static final float DELTA = 0.001f;
+    private static final int SIZE = 320;
+
+    @Test
+    public void roundDialHasHourTicksBetweenTheRings() throws Exception {
+        MarkerGeometry markers = new MarkerGeometry();
+        markers.setBounds(SIZE, SIZE, true);
+        float radius = SIZE / 2f - WatchFaceRenderer.SECOND_HAND_INSET;
+        assertEquals(radius, markers.getRingRadius(), DELTA);
+        assertEquals(radius - MarkerGeometry.RING_SPACING, markers.getInnerRingRadius(), DELTA);
+        assertEquals(4 * MarkerGeometry.LINE, markers.getHeavyTickCount());
+        assertEquals(8 * MarkerGeometry.LINE, markers.getThinTickCount());
+
+        // twelve o'clock, from the outer ring in
+        float[] heavy = markers.getHeavyTicks();
+        assertEquals(SIZE / 2f, heavy[0], DELTA);
+        assertEquals(SIZE / 2f - radius, heavy[1], DELTA);
+        assertEquals(SIZE / 2f, heavy[2], DELTA);
+        assertEquals(SIZE / 2f - markers.getInnerRingRadius(), heavy[3], DELTA);
+        // three o'clock
+        assertEquals(SIZE / 2f + radius, heavy[MarkerGeometry.LINE], DELTA);
+        assertEquals(SIZE / 2f, heavy[MarkerGeometry.LINE + 1], DELTA);
+    }
+
+    @Test
+    public void squareDialHasMinuteTicksFromTheCenter() throws Exception {
+        MarkerGeometry markers = new MarkerGeometry();
+        markers.setBounds(280, 240, false);
+        assertEquals(12 * MarkerGeometry.LINE, markers.getHeavyTickCount());
+        assertEquals(48 * MarkerGeometry.LINE, markers.getThinTickCount());
+        assertEquals(0, markers.getRingRadius(), DELTA);
+
+        // every tick reaches past the corners
+        float[] thin = markers.getThinTicks();
+        float corner = (float) Math.sqrt(140 * 140 + 120 * 120);
+        for (int i = 0; i < markers.getThinTickCount(); i += MarkerGeometry.LINE) {
+            assertEquals(140, thin[i], DELTA);
+            assertEquals(120, thin[i + 1], DELTA);
+            assertEquals(corner, (float) Math.hypot(thin[i + 2] - 140, thin[i + 3] - 120), DELTA);
+        }
+    }
+
+    @Test
+    public void workedOutOncePerSurface() throws Exception {
+        MarkerGeometry markers = new MarkerGeometry();
+        markers.setBounds(SIZE, SIZE, true);
+        markers.setBounds(SIZE, SIZE, true);
+        assertEquals(1, markers.getComputations());
+        markers.setBounds(SIZE, SIZE, false);
+        assertEquals(2, markers.getComputations());
+        assertEquals(12 * MarkerGeometry.LINE, markers.getHeavyTickCount());
+        markers.setBounds(SIZE, SIZE, true);
+        assertEquals(4 * MarkerGeometry.LINE, markers.getHeavyTickCount());
+    }
+}
@@ -0,0 +1,352 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WatchBackgroundTest {
+    static final int SIZE = 320;
+
+    // dimensions of the resources on an xhdpi watch
+    static WatchBackground.Style style(boolean ambient) {
+        WatchBackground.Style style = new WatchBackground.Style();
+        style.ambient = ambient;
+        style.backgroundColor = ambient ? 0xff000000 : 0xff070d84;
+        style.markerColor = ambient ? 0xffcccccc : 0xff888888;
+        style.iconColor = 0xff888888;
+        style.handColor = 0xffcccccc;
+        style.textColor = 0xffffffff;
+        style.textSize = 40;
+        style.textSpacing = 40;
+        style.xOffset = 50;
+        style.ringStroke = 2;
+        style.heavyMarkStroke = 8;
+        style.thinMarkStroke = 2;
+        style.logoOffsetX = -14;
+        style.logoOffsetY = 90;
+        style.weatherIconOffsetX = 100;
+        style.weatherIconOffsetY = 40;
+        style.weatherIconRadius = 40;
+        style.degree = "\u00b0";
+        return style;
+    }
+
+    static class TestIcons implements WatchBackground.Icons {
+        final FaceImage logo = new CountingFaceImage(28, 28);
+        final FaceImage icon = new CountingFaceImage(72, 72);
+
+        @Override
+        public FaceImage getLogo(boolean grayscale) {
+            return logo;
+        }
+
+        @Override
+        public FaceImage getWeatherIcon(int weatherId, boolean ambient) {
+            return weatherId >= 200 ? icon : null;
+        }
+    }
+
+    private static WatchBackground background(boolean ambient, boolean round) {
+        WatchBackground background = new WatchBackground(style(ambient), new TestIcons(),
+                new CountingFaceImage.Factory());
+        background.setBounds(SIZE, SIZE, round);
+        return background;
+    }
+
+    private static CountingFaceCanvas canvasOf(FaceImage image) {
+        return ((CountingFaceImage) image).canvas;
+    }
+
+    @Test
+    public void firstImageRendersEveryLayer() throws Exception {
+        WatchBackground background = background(false, true);
+        background.setWeather(800, 22, 12, true);
+        FaceImage image = background.getImage();
+        assertEquals(SIZE, image.getWidth());
+        assertEquals(1, background.getStaticRenders());
+        assertEquals(1, background.getWeatherRenders());
+        assertEquals((long) SIZE * SIZE, background.getLastCompositedArea());
+        // static layer, then high, low and unit
+        CountingFaceCanvas canvas = canvasOf(image);
+        assertEquals(2, canvas.images);
+        assertEquals(3, canvas.texts);
+    }
+
+    @Test
+    public void unchangedBackgroundIsNotRendered() throws Exception {
+        WatchBackground background = background(false, true);
+        background.setWeather(800, 22, 12, true);
+        FaceImage image = background.getImage();
+        canvasOf(image).reset();
+        background.setWeather(800, 22, 12, true);
+        assertSame(image, background.getImage());
+        assertEquals(0, canvasOf(image).drawCalls());
+        assertEquals(1, background.getWeatherRenders());
+    }
+
+    @Test
+    public void weatherUpdateCompositesOnlyWhatChanged() throws Exception {
+        WatchBackground background = background(false, true);
+        background.setWeather(800, 22, 12, true);
+        FaceImage image = background.getImage();
+        long full = background.getLastCompositedArea();
+
+        CountingFaceCanvas canvas = canvasOf(image);
+        canvas.reset();
+        background.setWeather(800, 23, 12, true);
+        assertSame(image, background.getImage());
+        assertEquals(1, background.getStaticRenders());
+        assertEquals(2, background.getWeatherRenders());
+        assertEquals(1, canvas.clips);
+        long temperatures = background.getLastCompositedArea();
+        assertTrue(temperatures > 0);
+        assertTrue(temperatures < full / 5);
+
+        canvas.reset();
+        background.setWeather(500, 23, 12, true);
+        background.getImage();
+        assertEquals(1, canvas.clips);
+        long icon = background.getLastCompositedArea();
+        assertTrue(icon > 0);
+        assertTrue(icon < full / 10);
+
+        // both: each region once
+        canvas.reset();
+        background.setWeather(801, 9, -1, false);
+        background.getImage();
+        assertEquals(2, canvas.clips);
+        assertEquals(0, canvas.depth);
+    }
+
+    @Test
+    public void incrementalCompositeMatchesAFullRender() throws Exception {
+        // a low temperature wider than the high one sticks out on the left of it
+        int[][] updates = {{800, 5, -12}, {800, 5, 3}, {800, -12, 5}, {800, 22, 12}};
+        for (boolean ambient : new boolean[]{false, true}) {
+            for (boolean round : new boolean[]{true, false}) {
+                WatchBackground incremental = new WatchBackground(style(ambient),
+                        new WatchFaceHarnessTest.ResourceIcons(), BufferedFaceImage.FACTORY);
+                incremental.setBounds(SIZE, SIZE, round);
+                for (int[] update : updates) {
+                    incremental.setWeather(update[0], update[1], update[2], true);
+                    BufferedImage updated = ((BufferedFaceImage) incremental.getImage()).getImage();
+
+                    WatchBackground full = new WatchBackground(style(ambient),
+                            new WatchFaceHarnessTest.ResourceIcons(), BufferedFaceImage.FACTORY);
+                    full.setBounds(SIZE, SIZE, round);
+                    full.setWeather(update[0], update[1], update[2], true);
+                    BufferedImage rendered = ((BufferedFaceImage) full.getImage()).getImage();
+
+                    assertEquals("pixels differing after " + Arrays.toString(update)
+                                    + (ambient ? " ambient" : "") + (round ? " round" : " square"),
+                            0, countDifferentPixels(rendered, updated));
+                }
+                assertEquals(updates.length, incremental.getWeatherRenders());
+                assertEquals(1, incremental.getStaticRenders());
+            }
+        }
+    }
+
+    private static int countDifferentPixels(BufferedImage expected, BufferedImage actual) {
+        int count = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void weatherWithoutIconClearsTheTemperatures() throws Exception {
+        WatchBackground background = background(false, false);
+        background.setWeather(800, 22, 12, true);
+        FaceImage image = background.getImage();
+        canvasOf(image).reset();
+        background.setWeather(0, 22, 12, true);
+        background.getImage();
+        // the static layer goes back over both regions, nothing is drawn on it
+        assertEquals(2, canvasOf(image).clips);
+        assertEquals(0, canvasOf(image).texts);
+    }
+
+    @Test
+    public void staticChangesRenderEverything() throws Exception {
+        WatchBackground background = background(true, true);
+        background.setWeather(800, 22, 12, true);
+        background.getImage();
+
+        background.setAntiAlias(false);
+        background.getImage();
+        assertEquals(2, background.getStaticRenders());
+
+        // a new text layout composites everything again on the same static layer
+        FaceImage image = background.getImage();
+        background.setTextLayout(60, 36, 40);
+        assertSame(image, background.getImage());
+        assertEquals(2, background.getStaticRenders());
+        assertEquals((long) SIZE * SIZE, background.getLastCompositedArea());
+
+        background.setBounds(280, 280, true);
+        assertEquals(280, background.getImage().getWidth());
+        assertTrue(((CountingFaceImage) image).recycled);
+        assertEquals(3, background.getStaticRenders());
+    }
+
+    @Test
+    public void targetsAreBroughtUpToDateSeparately() throws Exception {
+        CountingFaceImage.Factory factory = new CountingFaceImage.Factory();
+        WatchBackground background = new WatchBackground(style(false), new TestIcons(), factory);
+        background.setBounds(SIZE, SIZE, true);
+        background.setWeather(800, 22, 12, true);
+        WatchBackground.Target first = new WatchBackground.Target();
+        WatchBackground.Target second = new WatchBackground.Target();
+        background.render(first);
+        background.render(second);
+        assertTrue(background.isCurrent(first));
+        assertEquals(1, background.getStaticRenders());
+
+        background.setWeather(800, 23, 12, true);
+        assertFalse(background.isCurrent(first));
+        background.render(first);
+        long temperatures = background.getLastCompositedArea();
+        assertTrue(temperatures < (long) SIZE * SIZE / 5);
+        // the second target is one update behind and needs the same region
+        background.setWeather(800, 24, 12, true);
+        background.render(second);
+        assertEquals(temperatures, background.getLastCompositedArea());
+        // the first is two behind; the temperatures are all that changed
+        background.render(first);
+        assertEquals(temperatures, background.getLastCompositedArea());
+        // the static layer and one image per target
+        assertEquals(3, factory.created);
+    }
+
+    @Test
+    public void modesShareTheMarkers() throws Exception {
+        MarkerGeometry markers = new MarkerGeometry();
+        CountingFaceImage.Factory factory = new CountingFaceImage.Factory();
+        WatchBackground interactive = new WatchBackground(style(false), new TestIcons(), markers,
+                factory);
+        WatchBackground ambient = new WatchBackground(style(true), new TestIcons(), markers,
+                factory);
+        interactive.setBounds(SIZE, SIZE, false);
+        ambient.setBounds(SIZE, SIZE, false);
+        interactive.getImage();
+        ambient.getImage();
+        assertEquals(1, markers.getComputations());
+        // static layer, composite, then the same for the ambient background
+        CountingFaceCanvas staticLayer = factory.images.get(0).canvas;
+        assertEquals(0, staticLayer.lines);
+        // the hour ticks go in both passes
+        assertEquals(3, staticLayer.lineBatches);
+        assertEquals(72, staticLayer.batchedLines);
+        // no minute ticks in ambient mode
+        CountingFaceCanvas ambientStaticLayer = factory.images.get(2).canvas;
+        assertEquals(1, ambientStaticLayer.lineBatches);
+        assertEquals(12, ambientStaticLayer.batchedLines);
+
+        // anti-aliasing renders the static layer again, on the same markers
+        ambient.setAntiAlias(false);
+        ambient.getImage();
+        assertEquals(2, ambient.getStaticRenders());
+        assertEquals(1, markers.getComputations());
+
+        interactive.setBounds(SIZE, SIZE, true);
+        ambient.setBounds(SIZE, SIZE, true);
+        interactive.getImage();
+        ambient.getImage();
+        assertEquals(2, markers.getComputations());
+    }
+
+    @Test
+    public void newImageFactoryRendersIntoNewImages() throws Exception {
+        CountingFaceImage.Factory lowBit = new CountingFaceImage.Factory();
+        WatchBackground background = background(true, true);
+        background.setWeather(800, 22, 12, true);
+        FaceImage image = background.getImage();
+        background.setImageFactory(lowBit);
+        assertNotSame(image, background.getImage());
+        assertTrue(((CountingFaceImage) image).recycled);
+        // the static layer and the composite
+        assertEquals(2, lowBit.created);
+        assertEquals(2, background.getStaticRenders());
+        assertEquals((long) SIZE * SIZE, background.getLastCompositedArea());
+
+        background.setImageFactory(lowBit);
+        background.getImage();
+        assertEquals(2, lowBit.created);
+        assertEquals(2, background.getStaticRenders());
+    }
+
+    @Test
+    public void ambientTextIsOutlined() throws Exception {
+        WatchBackground background = background(true, false);
+        background.setWeather(800, 22, 12, true);
+        assertEquals(6, canvasOf(background.getImage()).texts);
+    }
+
+    @Test
+    public void rebuildsAndWeatherUpdatesRenderOnlyWhatTheyChange() throws Exception {
+        WatchBackground background = background(false, false);
+        background.setWeather(800, 22, 12, true);
+        background.getImage();
+        long full = background.getLastCompositedArea();
+
+        // a paint change rebuilds everything, each time
+        for (int i = 1; i <= 10; i++) {
+            background.setAntiAlias(i % 2 == 0);
+            background.getImage();
+            assertEquals(full, background.getLastCompositedArea());
+        }
+        assertEquals(11, background.getStaticRenders());
+        assertEquals(11, background.getWeatherRenders());
+
+        // a temperature change only composites the temperatures
+        for (int i = 1; i <= 10; i++) {
+            background.setWeather(800, 22 + i % 2, 12, true);
+            background.getImage();
+            assertTrue(background.getLastCompositedArea() < full / 5);
+        }
+        assertEquals(11, background.getStaticRenders());
+        assertEquals(21, background.getWeatherRenders());
+
+        // and the same weather again renders nothing
+        for (int i = 0; i < 10; i++) {
+            background.setWeather(800, 22, 12, true);
+            background.getImage();
+        }
+        assertEquals(11, background.getStaticRenders());
+        assertEquals(21, background.getWeatherRenders());
+    }
+
+    @Test
+    public void rebuildBenchmark() throws Exception {
+        Assume.assumeTrue(FrameBenchmark.isEnabled());
+        final WatchBackground background = background(false, false);
+        background.setWeather(800, 22, 12, true);
+        background.getImage();
+        FrameBenchmark.run("full background rebuild", 20000,
+                new FrameBenchmark.Frame() {
+                    @Override
+                    public void draw(int i) {
+                        background.setAntiAlias(i % 2 == 0);
+                        background.getImage();
+                    }
+                });
+        FrameBenchmark.run("weather update", 20000,
+                new FrameBenchmark.Frame() {
+                    @Override
+                    public void draw(int i) {
+                        background.setWeather(800, 20 + i % 2, 12, true);
+                        background.getImage();
+                    }
+                });
+    }
+}
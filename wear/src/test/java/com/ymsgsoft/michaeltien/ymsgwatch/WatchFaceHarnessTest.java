@@ -0,0 +1,261 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Renders whole frames of the watch face off screen, as the engine draws them, and holds them
+ * against golden images in src/test/resources/golden.
+ *
+ * After a change that is meant to look different, regenerate the goldens with
+ * REGENERATE_GOLDEN=1 in the environment, or -Dgolden.regenerate=true, and check the new images
+ * in with the change.  Text comes from the JVM's fonts, so the comparison allows a sliver of the
+ * face to differ; anything a marker, a hand or an icon covers is more than that.
+ *
+ * The frames are also timed, but only when asked for, see {@link FrameBenchmark#isEnabled()}:
+ * Java2D on a build machine says little about the watch, so the times are reported, not held to
+ * a limit.
+ */
+public class WatchFaceHarnessTest {
+    // a pixel differs if a channel is off by more than this
+    private static final int CHANNEL_TOLERANCE = 24;
+    // the face matches if no more than this share of its pixels differ
+    private static final double MAX_DIFFERENT_PIXELS = 0.01;
+
+    private static final int HOUR = 10;
+    private static final int MINUTE = 8;
+    private static final int SECOND = 42;
+
+    private static class Case {
+        final String name;
+        final int width;
+        final int height;
+        final boolean round;
+        final boolean ambient;
+        // off as on a low-bit display
+        final boolean antiAlias;
+        final boolean burnInProtection;
+
+        Case(String name, int width, int height, boolean round, boolean ambient,
+             boolean antiAlias, boolean burnInProtection) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.round = round;
+            this.ambient = ambient;
+            this.antiAlias = antiAlias;
+            this.burnInProtection = burnInProtection;
+        }
+    }
+
+    private static final Case[] CASES = {
+            new Case("interactive_round", 320, 320, true, false, true, false),
+            new Case("ambient_round", 320, 320, true, true, true, false),
+            new Case("interactive_square", 280, 280, false, false, true, false),
+            new Case("ambient_square", 280, 280, false, true, true, false),
+            new Case("ambient_low_bit_round", 320, 320, true, true, false, false),
+            new Case("ambient_burn_in_square", 280, 280, false, true, false, true),
+    };
+
+    /**
+     * The face as the engine puts it together, drawing into an image.
+     */
+    private static class Harness {
+        final BufferedImage image;
+        final FaceCanvas canvas;
+        final WatchFace face;
+        final WatchBackground background;
+
+        Harness(Case c) {
+            image = new BufferedImage(c.width, c.height, BufferedImage.TYPE_INT_ARGB);
+            canvas = new Graphics2DFaceCanvas(image.createGraphics());
+            ResourceIcons icons = new ResourceIcons();
+            WatchFaceRenderer.Style style = WatchFaceRendererTest.style();
+            WatchFaceRenderer renderer = new WatchFaceRenderer(style, BufferedFaceImage.FACTORY);
+            background = new WatchBackground(WatchBackgroundTest.style(c.ambient), icons,
+                    BufferedFaceImage.FACTORY);
+            background.setBounds(c.width, c.height, c.round);
+            background.setWeather(800, 22, 12, true);
+            if (!c.antiAlias) {
+                background.setAntiAlias(false);
+                background.setImageFactory(BufferedFaceImage.RGB_565_FACTORY);
+                renderer.setAntiAlias(false);
+            }
+            // only the case's mode is drawn
+            face = new WatchFace(style, renderer, background, background);
+            face.setBounds(c.width, c.height);
+            face.setBurnInProtection(c.burnInProtection);
+        }
+
+        void draw(Case c, int second) {
+            face.drawFrame(canvas, HOUR, MINUTE, second, 0, c.ambient);
+        }
+    }
+
+    /**
+     * The watch's own icons, read from the module's resources.
+     */
+    static class ResourceIcons implements WatchBackground.Icons {
+        private final FaceImage mLogo = read("ic_watch_logo");
+        private final FaceImage mGrayLogo = grayscale(mLogo);
+        private final FaceImage mClear = read("ic_clear");
+        private final FaceImage mAmbientClear = read("ic_clear1");
+
+        @Override
+        public FaceImage getLogo(boolean grayscale) {
+            return grayscale ? mGrayLogo : mLogo;
+        }
+
+        @Override
+        public FaceImage getWeatherIcon(int weatherId, boolean ambient) {
+            return weatherId == 800 ? ambient ? mAmbientClear : mClear : null;
+        }
+
+        private static FaceImage read(String name) {
+            try {
+                return new BufferedFaceImage(toArgb(ImageIO.read(
+                        moduleFile("src/main/res/drawable-xhdpi/" + name + ".png"))));
+            } catch (Exception e) {
+                throw new AssertionError("Cannot read " + name + ": " + e);
+            }
+        }
+
+        // the color matrix IconCache uses, saturation 0
+        private static FaceImage grayscale(FaceImage image) {
+            BufferedImage color = ((BufferedFaceImage) image).getImage();
+            BufferedImage gray = new BufferedImage(color.getWidth(), color.getHeight(),
+                    BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < color.getHeight(); y++) {
+                for (int x = 0; x < color.getWidth(); x++) {
+                    int argb = color.getRGB(x, y);
+                    int luma = (int) (0.213f * ((argb >> 16) & 0xff) + 0.715f * ((argb >> 8) & 0xff)
+                            + 0.072f * (argb & 0xff));
+                    gray.setRGB(x, y, (argb & 0xff000000) | luma << 16 | luma << 8 | luma);
+                }
+            }
+            return new BufferedFaceImage(gray);
+        }
+    }
+
+    /**
+     * @return a file of the wear module, whether the tests run in it or in the project.
+     */
+    static File moduleFile(String path) {
+        File file = new File(path);
+        return file.exists() || !new File("wear").isDirectory() ? file : new File("wear", path);
+    }
+
+    private static BufferedImage toArgb(BufferedImage image) {
+        BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        argb.createGraphics().drawImage(image, 0, 0, null);
+        return argb;
+    }
+
+    private static boolean regenerate() {
+        return Boolean.getBoolean("golden.regenerate") || System.getenv("REGENERATE_GOLDEN") != null;
+    }
+
+    @Test
+    public void framesMatchTheGoldenImages() throws Exception {
+        StringBuilder failures = new StringBuilder();
+        for (Case c : CASES) {
+            Harness harness = new Harness(c);
+            harness.draw(c, SECOND);
+            String path = "golden/" + c.name + ".png";
+            if (regenerate()) {
+                File file = moduleFile("src/test/resources/" + path);
+                file.getParentFile().mkdirs();
+                ImageIO.write(harness.image, "png", file);
+                continue;
+            }
+            InputStream in = getClass().getClassLoader().getResourceAsStream(path);
+            assertNotNull("No golden image " + path + ", regenerate them", in);
+            BufferedImage golden;
+            try {
+                golden = toArgb(ImageIO.read(in));
+            } finally {
+                in.close();
+            }
+            double different = compare(golden, harness.image, c.name);
+            if (different > MAX_DIFFERENT_PIXELS) {
+                failures.append(' ').append(c.name).append(" (")
+                        .append(String.format("%.3f", different * 100)).append("%)");
+            }
+        }
+        assertTrue("Frames differ from the goldens, see build/golden:" + failures,
+                failures.length() == 0);
+    }
+
+    /**
+     * @return the share of pixels that differ; if any do, the frame and a map of the
+     * differences are written to build/golden for a look.
+     */
+    private static double compare(BufferedImage golden, BufferedImage actual, String name)
+            throws Exception {
+        if (golden.getWidth() != actual.getWidth() || golden.getHeight() != actual.getHeight()) {
+            return 1;
+        }
+        BufferedImage diff = new BufferedImage(golden.getWidth(), golden.getHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        int count = 0;
+        for (int y = 0; y < golden.getHeight(); y++) {
+            for (int x = 0; x < golden.getWidth(); x++) {
+                int a = golden.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                boolean differs = false;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    if (Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff)) > CHANNEL_TOLERANCE) {
+                        differs = true;
+                    }
+                }
+                if (differs) {
+                    count++;
+                    diff.setRGB(x, y, 0xffff0000);
+                } else {
+                    diff.setRGB(x, y, (b & 0x00ffffff) | 0x40000000);
+                }
+            }
+        }
+        if (count > 0) {
+            File dir = moduleFile("build/golden");
+            dir.mkdirs();
+            ImageIO.write(actual, "png", new File(dir, name + ".png"));
+            ImageIO.write(diff, "png", new File(dir, name + "_diff.png"));
+        }
+        return (double) count / (golden.getWidth() * golden.getHeight());
+    }
+
+    @Test
+    public void frameBenchmarks() throws Exception {
+        Assume.assumeTrue(FrameBenchmark.isEnabled());
+        for (final Case c : CASES) {
+            final Harness harness = new Harness(c);
+            // Java2D allocates as it pleases, so this is only reported; the face's own
+            // allocations are held to zero by the counting canvas in WatchFaceRendererTest
+            FrameBenchmark.run(c.name + " frame", 2000,
+                    new FrameBenchmark.Frame() {
+                        @Override
+                        public void draw(int i) {
+                            harness.draw(c, i % 60);
+                        }
+                    });
+            FrameBenchmark.run(c.name + " weather update", 500,
+                    new FrameBenchmark.Frame() {
+                        @Override
+                        public void draw(int i) {
+                            harness.background.setWeather(800, 20 + i % 2, 12, true);
+                            harness.draw(c, SECOND);
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WatchFaceRendererTest {
+    static WatchFaceRenderer.Style style() {
+        WatchFaceRenderer.Style style = new WatchFaceRenderer.Style();
+        style.handColor = 0xffcccccc;
+        style.secondHandColor = 0xffff0000;
+        style.backgroundColor = 0xff070d84;
+        style.ambientBackgroundColor = 0xff000000;
+        style.innerRadius = 4;
+        style.handWidth = 2;
+        style.secondHandWidth = 2;
+        style.minuteDelta = 16;
+        style.hourDelta = 16;
+        return style;
+    }
+
+    private static WatchFaceRenderer renderer(int width, int height) {
+        return renderer(width, height, new CountingFaceImage.Factory());
+    }
+
+    private static WatchFaceRenderer renderer(int width, int height,
+                                              CountingFaceImage.Factory factory) {
+        WatchFaceRenderer renderer = new WatchFaceRenderer(style(), factory);
+        renderer.setBounds(width, height);
+        return renderer;
+    }
+
+    @Test
+    public void interactiveFrame() throws Exception {
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        renderer(320, 320).drawHands(canvas, 10, 8, 42, false);
+        // minute and hour hand sprites
+        assertEquals(2, canvas.images);
+        assertEquals(0, canvas.rects);
+        assertEquals(2, canvas.circles);
+        assertEquals(1, canvas.lines);
+        assertEquals(1, canvas.saves);
+        assertEquals(0, canvas.depth);
+    }
+
+    @Test
+    public void ambientFrameHasNoSecondHand() throws Exception {
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        renderer(320, 320).drawHands(canvas, 10, 8, 42, true);
+        assertEquals(2, canvas.images);
+        assertEquals(2, canvas.circles);
+        assertEquals(0, canvas.lines);
+        assertEquals(0, canvas.depth);
+    }
+
+    @Test
+    public void spritesHoldTheHands() throws Exception {
+        CountingFaceImage.Factory factory = new CountingFaceImage.Factory();
+        WatchFaceRenderer renderer = renderer(320, 320, factory);
+        renderer.drawHands(new CountingFaceCanvas(), 10, 8, 42, false);
+        renderer.drawHands(new CountingFaceCanvas(), 10, 8, 42, true);
+        assertEquals(4, factory.created);
+        assertEquals(4, renderer.getSpriteBuilds());
+    }
+
+    @Test
+    public void spritesRenderedOncePerSizeAndMode() throws Exception {
+        CountingFaceImage.Factory factory = new CountingFaceImage.Factory();
+        List<CountingFaceImage> images = factory.images;
+        WatchFaceRenderer renderer = renderer(320, 320, factory);
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        for (int i = 0; i < 100; i++) {
+            renderer.drawHands(canvas, i % 12, i % 60, i % 60, i % 10 == 9);
+        }
+        assertEquals(4, renderer.getSpriteBuilds());
+        // interactive hands are filled and shadowed, ambient ones outlined
+        assertEquals(2, images.get(0).canvas.rects);
+        assertEquals(1, images.get(2).canvas.rects);
+        // hand length plus the margin, which fits the stroke
+        float minuteLength = 160 - WatchFaceRenderer.MINUTE_HAND_INSET - style().minuteDelta;
+        assertTrue(images.get(0).height >= minuteLength + style().handWidth);
+        assertTrue(images.get(0).height > images.get(1).height);
+
+        renderer.setBounds(320, 320);
+        renderer.drawHands(canvas, 1, 2, 3, false);
+        assertEquals(4, renderer.getSpriteBuilds());
+
+        // a new size replaces the sprites of both modes, as they are drawn
+        renderer.setBounds(280, 280);
+        for (CountingFaceImage image : images) {
+            assertTrue(image.recycled);
+        }
+        renderer.drawHands(canvas, 1, 2, 3, false);
+        assertEquals(6, renderer.getSpriteBuilds());
+
+        renderer.invalidateSprites();
+        renderer.drawHands(canvas, 1, 2, 3, false);
+        assertEquals(8, renderer.getSpriteBuilds());
+
+        // low-bit ambient: only the mode drawn without anti-aliasing needs new sprites
+        renderer.setAntiAlias(false);
+        renderer.drawHands(canvas, 1, 2, 3, true);
+        renderer.setAntiAlias(true);
+        renderer.drawHands(canvas, 1, 2, 3, false);
+        renderer.setAntiAlias(false);
+        renderer.drawHands(canvas, 1, 2, 3, true);
+        assertEquals(10, renderer.getSpriteBuilds());
+    }
+
+    @Test
+    public void secondHandPointsAtTheSecond() throws Exception {
+        WatchFaceRenderer renderer = renderer(320, 290);
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        float length = 160 - WatchFaceRenderer.SECOND_HAND_INSET;
+
+        renderer.drawHands(canvas, 0, 0, 15, false);
+        assertEquals(160, canvas.lineStartX, 0);
+        assertEquals(145, canvas.lineStartY, 0);
+        assertEquals(160 + length, canvas.lineStopX, 0.01f);
+        assertEquals(145, canvas.lineStopY, 0.01f);
+
+        renderer.drawHands(canvas, 0, 0, 60, false);
+        assertEquals(160, canvas.lineStopX, 0.01f);
+        assertEquals(145 - length, canvas.lineStopY, 0.01f);
+    }
+
+    @Test
+    public void smoothSecondHandMovesBetweenSeconds() throws Exception {
+        WatchFaceRenderer renderer = renderer(320, 320);
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        float length = 160 - WatchFaceRenderer.SECOND_HAND_INSET;
+
+        renderer.drawHands(canvas, 0, 0, 14, 500, false);
+        double rotation = 14.5 / 30 * Math.PI;
+        assertEquals(160 + Math.sin(rotation) * length, canvas.lineStopX, 0.01f);
+        assertEquals(160 - Math.cos(rotation) * length, canvas.lineStopY, 0.01f);
+
+        // the last step of the last second stops short of 12
+        renderer.drawHands(canvas, 0, 0, 59, 999, false);
+        assertTrue(canvas.lineStopX < 160);
+        renderer.drawHands(canvas, 0, 0, 60, 0, false);
+        assertEquals(160, canvas.lineStopX, 0.01f);
+    }
+
+    @Test
+    public void boundsChangeMovesTheHands() throws Exception {
+        WatchFaceRenderer renderer = renderer(320, 320);
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        renderer.setBounds(280, 280);
+        renderer.drawHands(canvas, 0, 0, 30, false);
+        assertEquals(140, canvas.lineStartX, 0);
+        assertEquals(140, canvas.lineStopX, 0.01f);
+        assertEquals(140 + 140 - WatchFaceRenderer.SECOND_HAND_INSET, canvas.lineStopY, 0.01f);
+    }
+
+    @Test
+    public void framesAllocateNothing() throws Exception {
+        final WatchFaceRenderer renderer = renderer(320, 320);
+        final CountingFaceCanvas canvas = new CountingFaceCanvas();
+        // twelve hours of minutes in each mode, a second hand position each
+        FrameBenchmark interactive = FrameBenchmark.run("interactive hands", 12 * 60,
+                new FrameBenchmark.Frame() {
+                    @Override
+                    public void draw(int i) {
+                        renderer.drawHands(canvas, i / 60, i % 60, i % 61, false);
+                    }
+                });
+        FrameBenchmark ambient = FrameBenchmark.run("ambient hands", 12 * 60,
+                new FrameBenchmark.Frame() {
+                    @Override
+                    public void draw(int i) {
+                        renderer.drawHands(canvas, i / 60, i % 60, 0, true);
+                    }
+                });
+        // the sprites of each mode were built once, not per frame
+        assertEquals(4, renderer.getSpriteBuilds());
+        assertEquals(0, canvas.depth);
+        if (interactive.countsAllocations()) {
+            // the counter's own bookkeeping is under a kilobyte a run; an object a frame is more
+            assertTrue(interactive.bytesPerFrame * interactive.frames < 4096);
+            assertTrue(ambient.bytesPerFrame * ambient.frames < 4096);
+        }
+    }
+
+    @Test
+    public void frameBenchmark() throws Exception {
+        Assume.assumeTrue(FrameBenchmark.isEnabled());
+        final WatchFaceRenderer renderer = renderer(320, 320);
+        final CountingFaceCanvas canvas = new CountingFaceCanvas();
+        FrameBenchmark.run("interactive hands", 200000,
+                new FrameBenchmark.Frame() {
+                    @Override
+                    public void draw(int i) {
+                        renderer.drawHands(canvas, i % 12, i % 60, i % 61, false);
+                    }
+                });
+        FrameBenchmark.run("ambient hands", 200000,
+                new FrameBenchmark.Frame() {
+                    @Override
+                    public void draw(int i) {
+                        renderer.drawHands(canvas, i % 12, i % 60, 0, true);
+                    }
+                });
+    }
+}
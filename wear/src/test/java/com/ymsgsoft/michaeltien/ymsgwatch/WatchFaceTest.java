@@ -0,0 +1,85 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WatchFaceTest {
+    private static final int SIZE = 320;
+
+    private WatchBackground mInteractive;
+    private WatchBackground mAmbient;
+    private WatchFace mFace;
+    private final CountingFaceCanvas mCanvas = new CountingFaceCanvas();
+
+    @Before
+    public void setUp() throws Exception {
+        MarkerGeometry markers = new MarkerGeometry();
+        mInteractive = new WatchBackground(WatchBackgroundTest.style(false),
+                new WatchBackgroundTest.TestIcons(), markers, new CountingFaceImage.Factory());
+        mAmbient = new WatchBackground(WatchBackgroundTest.style(true),
+                new WatchBackgroundTest.TestIcons(), markers, new CountingFaceImage.Factory());
+        mInteractive.setBounds(SIZE, SIZE, true);
+        mAmbient.setBounds(SIZE, SIZE, true);
+        mAmbient.setWeather(800, 22, 12, true);
+        WatchFaceRenderer.Style style = WatchFaceRendererTest.style();
+        mFace = new WatchFace(style, new WatchFaceRenderer(style, new CountingFaceImage.Factory()),
+                mInteractive, mAmbient);
+        mFace.setBounds(SIZE, SIZE);
+    }
+
+    @Test
+    public void ambientTickDrawsFromTheCaches() throws Exception {
+        mFace.drawFrame(mCanvas, 10, 8, 0, 0, true);
+        mCanvas.reset();
+        for (int minute = 9; minute < 69; minute++) {
+            mFace.drawFrame(mCanvas, 10 + minute / 60, minute % 60, 0, 0, true);
+        }
+        // the background and two hand sprites a minute, and the circles at the center
+        assertEquals(60 * 3, mCanvas.images);
+        assertEquals(60 * 2, mCanvas.circles);
+        assertEquals(0, mCanvas.rects);
+        assertEquals(1, mAmbient.getStaticRenders());
+        assertEquals(1, mAmbient.getWeatherRenders());
+        assertEquals(0, mInteractive.getWeatherRenders());
+    }
+
+    @Test
+    public void burnInProtectionMovesTheAmbientFrame() throws Exception {
+        mFace.setBurnInProtection(true);
+        mFace.drawFrame(mCanvas, 10, 8, 0, 0, true);
+        float lastX = mFace.getBurnInOffsetX(10, 8);
+        float lastY = mFace.getBurnInOffsetY(10, 8);
+        boolean moved = false;
+        for (int minute = 9; minute < 24 * 60 + 9; minute++) {
+            int hour = minute / 60 % 24;
+            mCanvas.reset();
+            mFace.drawFrame(mCanvas, hour, minute % 60, 0, 0, true);
+            float x = mFace.getBurnInOffsetX(hour, minute % 60);
+            float y = mFace.getBurnInOffsetY(hour, minute % 60);
+            assertEquals(x, mCanvas.translateX, 0);
+            assertEquals(y, mCanvas.translateY, 0);
+            assertEquals(mCanvas.saves, mCanvas.restores);
+            // a strip for each direction moved in
+            assertEquals((x != 0 ? 1 : 0) + (y != 0 ? 1 : 0), mCanvas.rects);
+            assertTrue(Math.abs(x) <= WatchFace.BURN_IN_SHIFT);
+            assertTrue(Math.abs(y) <= WatchFace.BURN_IN_SHIFT);
+            // a step at a time, midnight included
+            assertTrue(Math.abs(x - lastX) <= WatchFace.BURN_IN_SHIFT);
+            assertTrue(Math.abs(y - lastY) <= WatchFace.BURN_IN_SHIFT);
+            moved |= x != lastX || y != lastY;
+            lastX = x;
+            lastY = y;
+        }
+        assertTrue(moved);
+        // nothing was rendered again for it
+        assertEquals(1, mAmbient.getStaticRenders());
+        assertEquals(1, mAmbient.getWeatherRenders());
+
+        // interactive frames stay put
+        mCanvas.reset();
+        mFace.drawFrame(mCanvas, 10, 13, 0, 0, false);
+        assertEquals(0, mCanvas.translations);
+    }
+}
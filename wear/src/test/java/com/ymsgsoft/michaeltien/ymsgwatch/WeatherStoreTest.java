@@ -0,0 +1,152 @@
+package com.ymsgsoft.michaeltien.ymsgwatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class WeatherStoreTest {
+    private File mDir;
+    private File mFile;
+    private final AsyncBackgroundTest.QueueExecutor mExecutor = new AsyncBackgroundTest.QueueExecutor();
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("weather", "store");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdir());
+        mFile = new File(mDir, "weather.bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private static WeatherWireFormat.Forecast forecast() {
+        WeatherWireFormat.Forecast forecast = new WeatherWireFormat.Forecast();
+        forecast.timestamp = 1450000000000L;
+        forecast.startDate = 1449964800000L;
+        forecast.isMetric = true;
+        forecast.location = "Mountain View";
+        forecast.revision = 7;
+        forecast.horizon = 3;
+        forecast.days.add(new WeatherWireFormat.Day(0, 800, 225, 121));
+        forecast.days.add(new WeatherWireFormat.Day(1, 501, 198, 110));
+        forecast.days.add(new WeatherWireFormat.Day(2, 601, -15, -62));
+        return forecast;
+    }
+
+    @Test
+    public void weatherAndForecastSurviveARestart() throws Exception {
+        WeatherStore store = new WeatherStore(mFile, mExecutor);
+        store.setWeather(501, 20, -3, false);
+        store.setForecast(forecast());
+        mExecutor.runAll();
+
+        WeatherStore restarted = new WeatherStore(mFile, mExecutor);
+        assertTrue(restarted.load());
+        assertEquals(501, restarted.getWeatherId());
+        assertEquals(20, restarted.getHigh());
+        assertEquals(-3, restarted.getLow());
+        assertFalse(restarted.isMetric());
+        WeatherWireFormat.Forecast forecast = restarted.getForecast();
+        assertEquals(7, forecast.revision);
+        assertEquals("Mountain View", forecast.location);
+        assertEquals(forecast().days, forecast.days);
+        // the record and a forecast of a few days stay well under a disk block
+        assertTrue(mFile.length() < 128);
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void changesWaitingForTheExecutorAreWrittenOnce() throws Exception {
+        WeatherStore store = new WeatherStore(mFile, mExecutor);
+        store.setForecast(forecast());
+        store.setWeather(800, 22, 12, true);
+        store.setWeather(800, 23, 12, true);
+        assertEquals(1, mExecutor.tasks.size());
+        // memory is up to date before the file is
+        assertEquals(23, store.getHigh());
+        assertFalse(mFile.exists());
+        mExecutor.runAll();
+        assertEquals(1, store.getWrites());
+
+        // nothing new, nothing written
+        store.setWeather(800, 23, 12, true);
+        assertTrue(mExecutor.tasks.isEmpty());
+
+        WeatherStore restarted = new WeatherStore(mFile, mExecutor);
+        assertTrue(restarted.load());
+        assertEquals(23, restarted.getHigh());
+        assertTrue(restarted.isMetric());
+    }
+
+    @Test
+    public void weatherWithoutAForecast() throws Exception {
+        WeatherStore store = new WeatherStore(mFile, mExecutor);
+        store.setWeather(300, 5, 1, true);
+        mExecutor.runAll();
+        WeatherStore restarted = new WeatherStore(mFile, mExecutor);
+        assertTrue(restarted.load());
+        assertEquals(300, restarted.getWeatherId());
+        assertNull(restarted.getForecast());
+    }
+
+    @Test
+    public void missingOrDamagedFileLoadsNothing() throws Exception {
+        WeatherStore store = new WeatherStore(mFile, mExecutor);
+        assertFalse(store.load());
+        assertEquals(0, store.getWeatherId());
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] {WeatherStore.VERSION, 0, 0, 3});
+        out.close();
+        assertFalse(store.load());
+
+        out = new FileOutputStream(mFile);
+        out.write(new byte[] {99, 0, 0, 0, 1});
+        out.close();
+        assertFalse(store.load());
+        assertEquals(0, store.getWeatherId());
+
+        // a forecast length far past the end of the file
+        DataOutputStream record = new DataOutputStream(new FileOutputStream(mFile));
+        record.writeByte(WeatherStore.VERSION);
+        record.writeInt(800);
+        record.writeInt(22);
+        record.writeInt(12);
+        record.writeByte(0xff);
+        record.writeInt(0x7ffffff0);
+        record.close();
+        assertFalse(store.load());
+        assertEquals(0, store.getWeatherId());
+    }
+
+    @Test
+    public void failedWriteKeepsTheOldFile() throws Exception {
+        WeatherStore store = new WeatherStore(mFile, mExecutor);
+        store.setWeather(800, 22, 12, true);
+        mExecutor.runAll();
+        // the temporary file can't be created where a directory is in the way
+        assertTrue(new File(mFile.getPath() + ".tmp").mkdir());
+        store.setWeather(500, 10, 2, true);
+        mExecutor.runAll();
+        assertEquals(1, store.getFailedWrites());
+
+        WeatherStore restarted = new WeatherStore(mFile, mExecutor);
+        assertTrue(restarted.load());
+        assertEquals(800, restarted.getWeatherId());
+    }
+}